@@ -0,0 +1,93 @@
+package org.keeber.imaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batch throughput with slow (simulated network) sources and targets: the fixed platform pools of
+ * {@link Batch.Mode#STAGED} against {@link Batch.Mode#THREAD_PER_JOB} as the number of jobs in
+ * flight grows.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class BatchBenchmark {
+  private static final int JOBS = 64;
+
+  @Param({"STAGED", "THREAD_PER_JOB"})
+  public Batch.Mode mode;
+
+  @Param({"4", "16", "64"})
+  public int concurrency;
+
+  @Param({"20"})
+  public int latency;
+
+  private byte[] source;
+
+  @Setup
+  public void setup() throws IOException {
+    source = Synthetic.encoded(Image.Type.JPG, 512, 384, false);
+  }
+
+  /**
+   * Throughput in jobs (not batches) per second.
+   */
+  @Benchmark
+  @OperationsPerInvocation(JOBS)
+  public Batch.Report batch() throws InterruptedException {
+    List<Batch.Job> jobs = new ArrayList<Batch.Job>();
+    for (int i = 0; i < JOBS; i++) {
+      jobs.add(new Batch.Job(new Batch.Source() {
+        public InputStream open() throws IOException {
+          sleep();
+          return new ByteArrayInputStream(source);
+        }
+      }, new Batch.Target() {
+        public OutputStream open() throws IOException {
+          sleep();
+          return new NullOutputStream();
+        }
+      }, Image.Type.JPG).sourceType(Image.Type.JPG).edit(new Batch.Edit() {
+        public Image apply(Image img) {
+          return img.edit.longestSide(128);
+        }
+      }));
+    }
+    // The staged pools stay fixed - only the in flight jobs grow.
+    return new Batch().setMode(mode).setConcurrency(concurrency).run(jobs);
+  }
+
+  private void sleep() throws IOException {
+    try {
+      Thread.sleep(latency);
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+}
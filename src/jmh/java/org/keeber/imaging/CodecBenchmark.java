@@ -0,0 +1,70 @@
+package org.keeber.imaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Image.read#from(java.io.InputStream, Image.Type)} and
+ * {@link Image.write#to(java.io.OutputStream, Image.Type)} per type, size and band layout.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+  @Param({"TIF", "JPG", "PNG"})
+  public Image.Type type;
+
+  @Param({"512", "2048"})
+  public int size;
+
+  @Param({"GRAY", "INTERLEAVED", "PACKED"})
+  public Synthetic.Layout layout;
+
+  @Param({"false", "true"})
+  public boolean alpha;
+
+  private Image img;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    img = Synthetic.image(size, size * 3 / 4, layout, alpha);
+    encoded = Synthetic.encode(img, type);
+  }
+
+  @Benchmark
+  public Image read() throws IOException {
+    return Image.read.from(new ByteArrayInputStream(encoded), type);
+  }
+
+  @Benchmark
+  public ImageInfo probe() throws IOException {
+    return Image.read.probe(new ByteArrayInputStream(encoded), type);
+  }
+
+  @Benchmark
+  public long write() throws IOException {
+    return img.write.to(new NullOutputStream(), type);
+  }
+
+}
@@ -0,0 +1,77 @@
+package org.keeber.imaging;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Image#normalize(boolean)} and the edits per size and band layout. Each one works on a clone
+ * (which shares the raster - the edits replace it rather than change it).
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EditBenchmark {
+
+  @Param({"512", "2048", "4096"})
+  public int size;
+
+  @Param({"GRAY", "INTERLEAVED", "PACKED"})
+  public Synthetic.Layout layout;
+
+  @Param({"false", "true"})
+  public boolean alpha;
+
+  @Param({"BICUBIC"})
+  public Image.Filter filter;
+
+  private Image img;
+
+  @Setup
+  public void setup() throws IOException {
+    img = Synthetic.image(size, size * 3 / 4, layout, alpha);
+  }
+
+  @Benchmark
+  public Image normalize() {
+    return img.clone().normalize(false);
+  }
+
+  @Benchmark
+  public Image normalizeRemoveAlpha() {
+    return img.clone().normalize(true);
+  }
+
+  @Benchmark
+  public Image longestSide() {
+    return img.clone().edit.longestSide(size / 4, filter);
+  }
+
+  @Benchmark
+  public Image longestSideProgressive() {
+    return img.clone().edit.longestSide(size / 4, filter, true);
+  }
+
+  @Benchmark
+  public Image place() {
+    return img.clone().edit.place(size / 4, size / 4, filter);
+  }
+
+}
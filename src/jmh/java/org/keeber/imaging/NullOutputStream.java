@@ -0,0 +1,19 @@
+package org.keeber.imaging;
+
+import java.io.OutputStream;
+
+/**
+ * Discards everything - so the benchmarks measure the encode and not the destination.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+public class NullOutputStream extends OutputStream {
+
+  @Override
+  public void write(int b) {}
+
+  @Override
+  public void write(byte[] b, int off, int len) {}
+
+}
@@ -0,0 +1,69 @@
+package org.keeber.imaging;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Five sizes in two formats from one master: {@link Image#renditions(Image.Rendition...)} against a
+ * clone, edit and write per rendition.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenditionsBenchmark {
+  private static final int[] SIZES = {2048, 1024, 512, 256, 128};
+  private static final Image.Type[] TYPES = {Image.Type.JPG, Image.Type.PNG};
+
+  @Param({"4096"})
+  public int size;
+
+  private Image img;
+
+  @Setup
+  public void setup() throws IOException {
+    img = Synthetic.image(size, size * 3 / 4, false);
+  }
+
+  @Benchmark
+  public long[] renditions() throws IOException {
+    Image.Rendition[] renditions = new Image.Rendition[SIZES.length * TYPES.length];
+    int i = 0;
+    for (int length : SIZES) {
+      for (Image.Type type : TYPES) {
+        renditions[i++] = Image.Rendition.longestSide(length, type, new NullOutputStream());
+      }
+    }
+    return img.renditions(renditions);
+  }
+
+  @Benchmark
+  public long naive() throws IOException {
+    long written = 0;
+    for (int length : SIZES) {
+      Image edited = img.clone().edit.longestSide(length);
+      for (Image.Type type : TYPES) {
+        written += edited.write.to(new NullOutputStream(), type);
+      }
+    }
+    return written;
+  }
+
+}
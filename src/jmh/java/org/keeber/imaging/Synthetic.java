@@ -0,0 +1,184 @@
+package org.keeber.imaging;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Synthetic image generator so the benchmarks run offline (without a corpus of test images).
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+public class Synthetic {
+
+  /**
+   * The band layout of the generated raster.
+   */
+  public enum Layout {
+    /**
+     * One byte band (plus an alpha band).
+     */
+    GRAY,
+    /**
+     * Interleaved byte bands (as decoded by the readers).
+     */
+    INTERLEAVED,
+    /**
+     * Packed int pixels (as left by {@link Image#normalize(boolean)}).
+     */
+    PACKED
+  }
+
+  /**
+   * A gradient with some noise (so the encoders have something to compress).
+   * 
+   * @param width
+   * @param height
+   * @param alpha
+   * @return
+   */
+  public static BufferedImage raster(int width, int height, boolean alpha) {
+    BufferedImage raster = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(width * 31L + height);
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int r = (255 * x / width + random.nextInt(16)) & 0xff;
+        int g = (255 * y / height + random.nextInt(16)) & 0xff;
+        int b = ((x ^ y) + random.nextInt(16)) & 0xff;
+        int a = alpha ? 128 + (127 * x / width) : 0xff;
+        row[x] = a << 24 | r << 16 | g << 8 | b;
+      }
+      raster.setRGB(0, y, width, 1, row, 0, width);
+    }
+    return raster;
+  }
+
+  /**
+   * The gradient in the given band layout.
+   * 
+   * @param width
+   * @param height
+   * @param layout
+   * @param alpha
+   * @return
+   */
+  public static BufferedImage raster(int width, int height, Layout layout, boolean alpha) {
+    BufferedImage packed = raster(width, height, alpha);
+    BufferedImage raster;
+    switch (layout) {
+      case GRAY:
+        if (alpha) {
+          ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+          raster = new BufferedImage(cm, cm.createCompatibleWritableRaster(width, height), false, null);
+        } else {
+          raster = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        }
+        break;
+      case INTERLEAVED:
+        raster = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR);
+        break;
+      default:
+        return packed;
+    }
+    Graphics2D g = raster.createGraphics();
+    g.drawImage(packed, 0, 0, null);
+    g.dispose();
+    return raster;
+  }
+
+  /**
+   * The encoded bytes of a synthetic image (with resolution and XMP) of the given type.
+   * 
+   * @param type
+   * @param width
+   * @param height
+   * @param alpha
+   * @return
+   * @throws IOException
+   */
+  public static byte[] encoded(Image.Type type, int width, int height, boolean alpha) throws IOException {
+    return encode(image(width, height, alpha), type);
+  }
+
+  public static byte[] encoded(Image.Type type, int width, int height, Layout layout, boolean alpha) throws IOException {
+    return encode(image(width, height, layout, alpha), type);
+  }
+
+  /**
+   * A synthetic image wrapped as an Image (by way of a PNG round trip).
+   * 
+   * @param width
+   * @param height
+   * @param alpha
+   * @return
+   * @throws IOException
+   */
+  public static Image image(int width, int height, boolean alpha) throws IOException {
+    return image(width, height, Layout.INTERLEAVED, alpha);
+  }
+
+  /**
+   * A synthetic image wrapped as an Image in the given band layout (by way of a PNG round trip - which
+   * decodes gray or interleaved, packed is normalized afterwards).
+   * 
+   * @param width
+   * @param height
+   * @param layout
+   * @param alpha
+   * @return
+   * @throws IOException
+   */
+  public static Image image(int width, int height, Layout layout, boolean alpha) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ImageIO.write(raster(width, height, layout == Layout.GRAY ? Layout.GRAY : Layout.INTERLEAVED, alpha), "png", bos);
+    Image img = Image.read.from(new ByteArrayInputStream(bos.toByteArray()), Image.Type.PNG);
+    if (layout == Layout.PACKED) {
+      img.normalize(false);
+    }
+    return img.setRes(300);
+  }
+
+  /**
+   * A serialized XMP packet like the ones Photoshop writes - with the given number of
+   * photoshop:DocumentAncestors entries (which build up as layers are pasted between documents).
+   * 
+   * @param ancestors
+   * @return
+   */
+  public static byte[] packet(int ancestors) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xpacket begin=\"\ufeff\" id=\"W5M0MpCehiHzreSzNTczkc9d\"?>\n");
+    sb.append("<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">\n <rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n");
+    sb.append("  <rdf:Description rdf:about=\"\" xmlns:xmp=\"http://ns.adobe.com/xap/1.0/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\"");
+    sb.append(" xmlns:photoshop=\"http://ns.adobe.com/photoshop/1.0/\" xmlns:xmpMM=\"http://ns.adobe.com/xap/1.0/mm/\"");
+    sb.append(" xmp:CreatorTool=\"Adobe Photoshop CC 2019 (Macintosh)\" xmp:CreateDate=\"2019-01-01T10:00:00+01:00\"");
+    sb.append(" photoshop:ColorMode=\"3\" xmpMM:InstanceID=\"xmp.iid:0f6a4e1b-1f3c-4b8e-9d51-8a8c2b7e1d11\">\n");
+    sb.append("   <dc:title><rdf:Alt><rdf:li xml:lang=\"x-default\">Synthetic</rdf:li></rdf:Alt></dc:title>\n");
+    sb.append("   <photoshop:DocumentAncestors>\n    <rdf:Bag>\n");
+    for (int i = 0; i < ancestors; i++) {
+      sb.append("     <rdf:li>xmp.did:").append(String.format("%08x-%04x-4%03x-8%03x-%012x", i, i & 0xffff, i & 0xfff, (i * 7) & 0xfff, i * 31L)).append("</rdf:li>\n");
+    }
+    sb.append("    </rdf:Bag>\n   </photoshop:DocumentAncestors>\n  </rdf:Description>\n </rdf:RDF>\n</x:xmpmeta>\n<?xpacket end=\"w\"?>");
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  public static byte[] encode(Image img, Image.Type type) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    img.write.to(bos, type);
+    return bos.toByteArray();
+  }
+
+}
@@ -0,0 +1,55 @@
+package org.keeber.imaging;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the streaming write against the temp file round trip (a spill threshold of 0).
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+
+  @Param({"TIF", "JPG", "PNG"})
+  public Image.Type type;
+
+  @Param({"1024"})
+  public int size;
+
+  private Image img;
+
+  @Setup
+  public void setup() throws IOException {
+    img = Synthetic.image(size, size * 3 / 4, false);
+  }
+
+  @Benchmark
+  public long stream() throws IOException {
+    return img.setSpillThreshold(64 * 1024 * 1024).write.to(new NullOutputStream(), type);
+  }
+
+  @Benchmark
+  public long tempFile() throws IOException {
+    return img.setSpillThreshold(0).write.to(new NullOutputStream(), type);
+  }
+
+}
@@ -0,0 +1,57 @@
+package org.keeber.imaging;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adobe.xmp.XMPException;
+import com.adobe.xmp.XMPMeta;
+import com.adobe.xmp.XMPMetaFactory;
+import com.adobe.xmp.options.ParseOptions;
+
+/**
+ * Parses Photoshop style packets (by the number of document ancestors) with the StAX parser and the
+ * DOM one.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XMPBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  public int ancestors;
+
+  private byte[] packet;
+
+  @Setup
+  public void setup() {
+    packet = Synthetic.packet(ancestors);
+  }
+
+  @Benchmark
+  public XMPMeta stax() throws XMPException {
+    return XMPMetaFactory.parseFromBuffer(packet, new ParseOptions());
+  }
+
+  @Benchmark
+  public XMPMeta dom() throws XMPException {
+    return XMPMetaFactory.parseFromBuffer(packet, new ParseOptions().setUseDOM(true));
+  }
+
+}
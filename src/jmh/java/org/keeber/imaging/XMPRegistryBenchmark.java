@@ -0,0 +1,97 @@
+package org.keeber.imaging;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.adobe.xmp.XMPConst;
+import com.adobe.xmp.XMPException;
+import com.adobe.xmp.XMPMeta;
+import com.adobe.xmp.XMPMetaFactory;
+import com.adobe.xmp.XMPSchemaRegistry;
+
+/**
+ * Schema registry lookups (and the property sets built on them) from one thread and from eight - all
+ * threads share the one registry, so the throughput should scale with the threads.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XMPRegistryBenchmark {
+  private static final String NS = "http://ns.keeber.org/benchmark/1.0/";
+  private static final String[] PROPERTIES = new String[20];
+
+  static {
+    for (int i = 0; i < PROPERTIES.length; i++) {
+      PROPERTIES[i] = "bm:property" + i;
+    }
+  }
+
+  private XMPSchemaRegistry registry;
+
+  @Setup
+  public void setup() throws XMPException {
+    registry = XMPMetaFactory.getSchemaRegistry();
+    registry.registerNamespace(NS, "bm");
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void lookup(Blackhole bh) {
+    lookups(bh);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void lookup8(Blackhole bh) {
+    lookups(bh);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public XMPMeta set() throws XMPException {
+    return sets();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public XMPMeta set8() throws XMPException {
+    return sets();
+  }
+
+  private void lookups(Blackhole bh) {
+    bh.consume(registry.getNamespacePrefix(XMPConst.NS_DC));
+    bh.consume(registry.getNamespaceURI("xmp"));
+    bh.consume(registry.resolveAlias(XMPConst.NS_XMP, "Author"));
+    bh.consume(registry.findAlias("tiff:Artist"));
+  }
+
+  /**
+   * The batch job case - the same properties set on a new XMP object.
+   */
+  private XMPMeta sets() throws XMPException {
+    XMPMeta xmp = XMPMetaFactory.create();
+    for (String property : PROPERTIES) {
+      xmp.setProperty(NS, property, "value");
+    }
+    return xmp;
+  }
+
+}
@@ -16,6 +16,7 @@ import com.adobe.xmp.impl.XMPMetaImpl;
 import com.adobe.xmp.impl.XMPMetaParser;
 import com.adobe.xmp.impl.XMPSchemaRegistryImpl;
 import com.adobe.xmp.impl.XMPSerializerHelper;
+import com.adobe.xmp.impl.xpath.XMPPathParser;
 import com.adobe.xmp.options.ParseOptions;
 import com.adobe.xmp.options.SerializeOptions;
 
@@ -245,6 +246,8 @@ public final class XMPMetaFactory
 	public static void reset()
 	{
 		schema = new XMPSchemaRegistryImpl();
+		// the cached paths were expanded with the old registry
+		XMPPathParser.invalidateCache();
 	}
 	
 	
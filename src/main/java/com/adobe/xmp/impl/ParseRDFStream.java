@@ -0,0 +1,995 @@
+package com.adobe.xmp.impl;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.adobe.xmp.XMPConst;
+import com.adobe.xmp.XMPError;
+import com.adobe.xmp.XMPException;
+
+
+/**
+ * Parser for "normal" XML serialisation of RDF that builds the XMP tree straight from StAX
+ * events, without an intermediate DOM. It follows the same RDF productions as {@link ParseRDF}
+ * (and shares its node building methods), only the XML content of an element is read as it
+ * is needed instead of being looked up in a tree.
+ * <p>
+ * Each production method is called with the reader on the start tag of its element and
+ * returns with the reader on the matching end tag.
+ *
+ * @since   16.10.2026
+ */
+public class ParseRDFStream implements XMPError, XMPConst
+{
+	/**
+	 * The start tag of an element: its name and attributes (namespace declarations are not
+	 * reported as attributes by StAX). Kept so the content can be read before the element
+	 * is processed.
+	 */
+	private static class Element
+	{
+		/** */
+		private final String namespace;
+		/** */
+		private final String prefix;
+		/** */
+		private final String localName;
+		/** */
+		private final String[] attrNamespace;
+		/** */
+		private final String[] attrPrefix;
+		/** */
+		private final String[] attrLocalName;
+		/** */
+		private final String[] attrValue;
+
+
+		/**
+		 * @param reader a reader on a start tag
+		 */
+		private Element(XMLStreamReader reader)
+		{
+			namespace = emptyToNull(reader.getNamespaceURI());
+			prefix = emptyToNull(reader.getPrefix());
+			localName = reader.getLocalName();
+			int count = reader.getAttributeCount();
+			attrNamespace = new String[count];
+			attrPrefix = new String[count];
+			attrLocalName = new String[count];
+			attrValue = new String[count];
+			for (int i = 0; i < count; i++)
+			{
+				// the DOM keeps attributes sorted by qualified name, keep the same order
+				// so that properties and namespaces are created as with ParseRDF
+				String attrPfx = emptyToNull(reader.getAttributePrefix(i));
+				String attrLocal = reader.getAttributeLocalName(i);
+				String name = attrPfx != null ? attrPfx + ':' + attrLocal : attrLocal;
+				int j = i;
+				for (; j > 0 && name.compareTo(getAttributeName(j - 1)) < 0; j--)
+				{
+					attrNamespace[j] = attrNamespace[j - 1];
+					attrPrefix[j] = attrPrefix[j - 1];
+					attrLocalName[j] = attrLocalName[j - 1];
+					attrValue[j] = attrValue[j - 1];
+				}
+				attrNamespace[j] = emptyToNull(reader.getAttributeNamespace(i));
+				attrPrefix[j] = attrPfx;
+				attrLocalName[j] = attrLocal;
+				attrValue[j] = reader.getAttributeValue(i);
+			}
+		}
+
+
+		/**
+		 * @return Returns the qualified name as written.
+		 */
+		private String getName()
+		{
+			return prefix != null ? prefix + ':' + localName : localName;
+		}
+
+
+		/**
+		 * @return Returns the number of attributes.
+		 */
+		private int getAttributeCount()
+		{
+			return attrLocalName.length;
+		}
+
+
+		/**
+		 * @param i the attribute index
+		 * @return Returns the qualified name of the attribute as written.
+		 */
+		private String getAttributeName(int i)
+		{
+			return attrPrefix[i] != null ? attrPrefix[i] + ':' + attrLocalName[i] : attrLocalName[i];
+		}
+
+
+		/**
+		 * Unqualified about and ID attributes of an RDF element are RDF terms.
+		 *
+		 * @param i the attribute index
+		 * @return Returns the term ID of the attribute.
+		 */
+		private int getAttributeTermKind(int i)
+		{
+			String attrNS = attrNamespace[i];
+			if (attrNS == null  &&
+				("about".equals(attrLocalName[i])  ||  "ID".equals(attrLocalName[i]))  &&
+				NS_RDF.equals(namespace))
+			{
+				attrNS = NS_RDF;
+			}
+			return ParseRDF.getRDFTermKind(attrNS, attrLocalName[i]);
+		}
+	}
+
+
+	/**
+	 * The main parsing method. The XML is read from the rdf:RDF start tag up to its end tag
+	 * and an XMP tree is created. This is a raw parse, the normalisation of the XMP tree
+	 * happens outside.
+	 *
+	 * @param reader a reader on the rdf:RDF start tag
+	 * @return Returns an XMP metadata object (not normalized)
+	 * @throws XMPException Occurs if the parsing fails for any reason.
+	 * @throws XMLStreamException Occurs if the XML is not well formed.
+	 */
+	static XMPMetaImpl parse(XMLStreamReader reader) throws XMPException, XMLStreamException
+	{
+		XMPMetaImpl xmp = new XMPMetaImpl();
+		rdf_RDF(xmp, reader);
+		return xmp;
+	}
+
+
+	/**
+	 * @see ParseRDF#rdf_RDF(XMPMetaImpl, org.w3c.dom.Node)
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param reader a reader on the rdf:RDF start tag
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_RDF(XMPMetaImpl xmp, XMLStreamReader reader)
+		throws XMPException, XMLStreamException
+	{
+		// the DOM counts the namespace declarations as attributes
+		if (reader.getAttributeCount() + reader.getNamespaceCount() > 0)
+		{
+			rdf_NodeElementList (xmp, xmp.getRoot(), reader);
+		}
+		else
+		{
+			throw new XMPException("Invalid attributes of rdf:RDF element", BADRDF);
+		}
+	}
+
+
+	/**
+	 * 7.2.10 nodeElementList<br>
+	 * ws* ( nodeElement ws* )*
+	 *
+	 * Note: this method is only called from the rdf:RDF-node (top level)
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param reader a reader on the rdf:RDF start tag
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_NodeElementList(XMPMetaImpl xmp, XMPNode xmpParent,
+			XMLStreamReader reader) throws XMPException, XMLStreamException
+	{
+		while (true)
+		{
+			int event = next(reader);
+			if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				return;
+			}
+			else if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				rdf_NodeElement (xmp, xmpParent, reader, true);
+			}
+			else if (!isWhitespace(reader, event))
+			{
+				// text, CDATA or a processing instruction is never a node element
+				throw new XMPException("Top level typed node not allowed", BADXMP);
+			}
+		}
+	}
+
+
+	/**
+	 * 7.2.11 nodeElement
+	 *
+	 * @see ParseRDF#rdf_NodeElement(XMPMetaImpl, XMPNode, org.w3c.dom.Node, boolean)
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param reader a reader on the start tag of the node element
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_NodeElement(XMPMetaImpl xmp, XMPNode xmpParent,
+			XMLStreamReader reader, boolean isTopLevel) throws XMPException, XMLStreamException
+	{
+		Element element = new Element(reader);
+		int nodeTerm = ParseRDF.getRDFTermKind(element.namespace, element.localName);
+		if (nodeTerm != ParseRDF.RDFTERM_DESCRIPTION  &&  nodeTerm != ParseRDF.RDFTERM_OTHER)
+		{
+			throw new XMPException("Node element must be rdf:Description or typed node",
+				BADRDF);
+		}
+		else if (isTopLevel  &&  nodeTerm == ParseRDF.RDFTERM_OTHER)
+		{
+			throw new XMPException("Top level typed node not allowed", BADXMP);
+		}
+		else
+		{
+			rdf_NodeElementAttrs (xmp, xmpParent, element, isTopLevel);
+			rdf_PropertyElementList (xmp, xmpParent, reader, isTopLevel);
+		}
+	}
+
+
+	/**
+	 * 7.2.7 propertyAttributeURIs
+	 *
+	 * @see ParseRDF#rdf_NodeElementAttrs(XMPMetaImpl, XMPNode, org.w3c.dom.Node, boolean)
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param element the start tag of the node element
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @throws XMPException thown on parsing errors
+	 */
+	private static void rdf_NodeElementAttrs(XMPMetaImpl xmp, XMPNode xmpParent,
+			Element element, boolean isTopLevel) throws XMPException
+	{
+		// Used to detect attributes that are mutually exclusive.
+		int exclusiveAttrs = 0;
+
+		for (int i = 0; i < element.getAttributeCount(); i++)
+		{
+			int attrTerm = element.getAttributeTermKind(i);
+
+			switch (attrTerm)
+			{
+				case ParseRDF.RDFTERM_ID:
+				case ParseRDF.RDFTERM_NODE_ID:
+				case ParseRDF.RDFTERM_ABOUT:
+					if (exclusiveAttrs > 0)
+					{
+						throw new XMPException("Mutally exclusive about, ID, nodeID attributes",
+								BADRDF);
+					}
+
+					exclusiveAttrs++;
+
+					if (isTopLevel && (attrTerm == ParseRDF.RDFTERM_ABOUT))
+					{
+						// This is the rdf:about attribute on a top level node. Set
+						// the XMP tree name if it doesn't have a name yet.
+						// Make sure this name matches the XMP tree name.
+						if (xmpParent.getName() != null && xmpParent.getName().length() > 0)
+						{
+							if (!xmpParent.getName().equals(element.attrValue[i]))
+							{
+								throw new XMPException("Mismatched top level rdf:about values",
+										BADXMP);
+							}
+						}
+						else
+						{
+							xmpParent.setName(element.attrValue[i]);
+						}
+					}
+					break;
+
+				case ParseRDF.RDFTERM_OTHER:
+					addAttributeNode(xmp, xmpParent, element, i, isTopLevel);
+					break;
+
+				default:
+					throw new XMPException("Invalid nodeElement attribute", BADRDF);
+			}
+		}
+	}
+
+
+	/**
+	 * 7.2.13 propertyEltList<br>
+	 * ws* ( propertyElt ws* )*
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param reader a reader on the start tag of the parent element
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_PropertyElementList(XMPMetaImpl xmp, XMPNode xmpParent,
+			XMLStreamReader reader, boolean isTopLevel) throws XMPException, XMLStreamException
+	{
+		while (true)
+		{
+			int event = next(reader);
+			if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				return;
+			}
+			else if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				rdf_PropertyElement(xmp, xmpParent, reader, isTopLevel);
+			}
+			else if (!isWhitespace(reader, event))
+			{
+				throw new XMPException("Expected property element node not found", BADRDF);
+			}
+		}
+	}
+
+
+	/**
+	 * 7.2.14 propertyElt
+	 *
+	 * The various property element forms are not distinguished by the XML element name,
+	 * but by their attributes for the most part. The exceptions are resourcePropertyElt and
+	 * literalPropertyElt. They are distinguished by their XML element content, which is read
+	 * up to the first child element to decide.
+	 *
+	 * @see ParseRDF#rdf_PropertyElement(XMPMetaImpl, XMPNode, org.w3c.dom.Node, boolean)
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param reader a reader on the start tag of the property element
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_PropertyElement(XMPMetaImpl xmp, XMPNode xmpParent,
+			XMLStreamReader reader, boolean isTopLevel) throws XMPException, XMLStreamException
+	{
+		Element element = new Element(reader);
+		int nodeTerm = ParseRDF.getRDFTermKind(element.namespace, element.localName);
+		if (!ParseRDF.isPropertyElementName(nodeTerm))
+		{
+			throw new XMPException("Invalid property element name", BADRDF);
+		}
+
+		if (element.getAttributeCount() > 3)
+		{
+			// Only an emptyPropertyElt can have more than 3 attributes.
+			rdf_EmptyPropertyElement(xmp, xmpParent, element, reader, false, isTopLevel);
+			return;
+		}
+
+		// Look through the attributes for one that isn't rdf:ID or xml:lang,
+		// it will usually tell what we should be dealing with.
+		// The called routines must verify their specific syntax!
+		for (int i = 0; i < element.getAttributeCount(); i++)
+		{
+			String attrLocal = element.attrLocalName[i];
+			String attrNS = element.attrNamespace[i];
+			String attrValue = element.attrValue[i];
+			if (!(XML_LANG.equals(element.getAttributeName(i))  &&
+				!("ID".equals(attrLocal)  &&  NS_RDF.equals(attrNS))))
+			{
+				if ("datatype".equals(attrLocal)  &&  NS_RDF.equals(attrNS))
+				{
+					rdf_LiteralPropertyElement (xmp, xmpParent, element, reader, null, isTopLevel);
+				}
+				else if (!("parseType".equals(attrLocal)  &&  NS_RDF.equals(attrNS)))
+				{
+					rdf_EmptyPropertyElement (xmp, xmpParent, element, reader, false, isTopLevel);
+				}
+				else if ("Literal".equals(attrValue))
+				{
+					throw new XMPException("ParseTypeLiteral property element not allowed", BADXMP);
+				}
+				else if ("Resource".equals(attrValue))
+				{
+					rdf_ParseTypeResourcePropertyElement(xmp, xmpParent, element, reader,
+						isTopLevel);
+				}
+				else if ("Collection".equals(attrValue))
+				{
+					throw new XMPException("ParseTypeCollection property element not allowed",
+						BADXMP);
+				}
+				else
+				{
+					throw new XMPException("ParseTypeOther property element not allowed", BADXMP);
+				}
+
+				return;
+			}
+		}
+
+		// Only rdf:ID and xml:lang, could be a resourcePropertyElt, a literalPropertyElt,
+		// or an emptyPropertyElt. Read the content up to the first child element to decide.
+		StringBuffer text = null;
+		while (true)
+		{
+			int event = next(reader);
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				if (text != null  &&  !isWhitespace(text))
+				{
+					throw new XMPException(
+						"Children of resource property element must be XML elements", BADRDF);
+				}
+				rdf_ResourcePropertyElement (xmp, xmpParent, element, reader, isTopLevel);
+				return;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				if (text != null)
+				{
+					rdf_LiteralPropertyElement (xmp, xmpParent, element, reader,
+						text.toString(), isTopLevel);
+				}
+				else
+				{
+					rdf_EmptyPropertyElement (xmp, xmpParent, element, reader, true, isTopLevel);
+				}
+				return;
+			}
+			else if (event == XMLStreamConstants.CHARACTERS  ||
+					 event == XMLStreamConstants.SPACE)
+			{
+				text = text != null ? text : new StringBuffer();
+				text.append(reader.getTextCharacters(), reader.getTextStart(),
+					reader.getTextLength());
+			}
+			else
+			{
+				// CDATA or a processing instruction
+				throw new XMPException(
+					"Children of resource property element must be XML elements", BADRDF);
+			}
+		}
+	}
+
+
+	/**
+	 * 7.2.15 resourcePropertyElt
+	 *		start-element ( URI == propertyElementURIs, attributes == set ( idAttr? ) )
+	 *		ws* nodeElement ws*
+	 *		end-element()
+	 *
+	 * @see ParseRDF#rdf_ResourcePropertyElement(XMPMetaImpl, XMPNode, org.w3c.dom.Node, boolean)
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param element the start tag of the property element
+	 * @param reader a reader on the start tag of the (first) child element
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_ResourcePropertyElement(XMPMetaImpl xmp, XMPNode xmpParent,
+			Element element, XMLStreamReader reader, boolean isTopLevel)
+			throws XMPException, XMLStreamException
+	{
+		if (isTopLevel  &&  "iX:changes".equals(element.getName()))
+		{
+			// Strip old "punchcard" chaff which has on the prefix "iX:".
+			skipElement(reader);
+			skipElement(reader);
+			return;
+		}
+
+		XMPNode newCompound = addElementNode(xmp, xmpParent, element, "", isTopLevel);
+
+		// walk through the attributes
+		for (int i = 0; i < element.getAttributeCount(); i++)
+		{
+			String attrLocal = element.attrLocalName[i];
+			String attrNS = element.attrNamespace[i];
+			if (XML_LANG.equals(element.getAttributeName(i)))
+			{
+				ParseRDF.addQualifierNode (newCompound, XML_LANG, element.attrValue[i]);
+			}
+			else if ("ID".equals(attrLocal)  &&  NS_RDF.equals(attrNS))
+			{
+				continue;	// Ignore all rdf:ID attributes.
+			}
+			else
+			{
+				throw new XMPException(
+					"Invalid attribute for resource property element", BADRDF);
+			}
+		}
+
+		// the child element
+		boolean isRDF = NS_RDF.equals(emptyToNull(reader.getNamespaceURI()));
+		String childLocal = reader.getLocalName();
+
+		if (isRDF  &&  "Bag".equals(childLocal))
+		{
+			newCompound.getOptions().setArray(true);
+		}
+		else if (isRDF  &&  "Seq".equals(childLocal))
+		{
+			newCompound.getOptions().setArray(true).setArrayOrdered(true);
+		}
+		else if (isRDF  &&  "Alt".equals(childLocal))
+		{
+			newCompound.getOptions().setArray(true).setArrayOrdered(true)
+					.setArrayAlternate(true);
+		}
+		else
+		{
+			newCompound.getOptions().setStruct(true);
+			if (!isRDF  &&  !"Description".equals(childLocal))
+			{
+				String typeName = emptyToNull(reader.getNamespaceURI());
+				if (typeName == null)
+				{
+					throw new XMPException(
+							"All XML elements must be in a namespace", BADXMP);
+				}
+				typeName += ':' + childLocal;
+				ParseRDF.addQualifierNode (newCompound, "rdf:type", typeName);
+			}
+		}
+
+		rdf_NodeElement (xmp, newCompound, reader, false);
+
+		if (newCompound.getHasValueChild())
+		{
+			ParseRDF.fixupQualifiedNode (newCompound);
+		}
+		else if (newCompound.getOptions().isArrayAlternate())
+		{
+			XMPNodeUtils.detectAltText(newCompound);
+		}
+
+		// only whitespace may follow the child element
+		while (true)
+		{
+			int event = next(reader);
+			if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				return;
+			}
+			else if (!isWhitespace(reader, event))
+			{
+				throw new XMPException(
+					"Invalid child of resource property element", BADRDF);
+			}
+		}
+	}
+
+
+	/**
+	 * 7.2.16 literalPropertyElt
+	 *		start-element ( URI == propertyElementURIs,
+	 *				attributes == set ( idAttr?, datatypeAttr?) )
+	 *		text()
+	 *		end-element()
+	 *
+	 * Add a leaf node with the text value and qualifiers for the attributes.
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param element the start tag of the property element
+	 * @param reader a reader on the start tag (or the end tag if the text has been read)
+	 * @param text the text content if it has already been read, <code>null</code> otherwise
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_LiteralPropertyElement(XMPMetaImpl xmp, XMPNode xmpParent,
+			Element element, XMLStreamReader reader, String text, boolean isTopLevel)
+			throws XMPException, XMLStreamException
+	{
+		XMPNode newChild = addElementNode (xmp, xmpParent, element, null, isTopLevel);
+
+		for (int i = 0; i < element.getAttributeCount(); i++)
+		{
+			String attrNS = element.attrNamespace[i];
+			String attrLocal = element.attrLocalName[i];
+			if (XML_LANG.equals(element.getAttributeName(i)))
+			{
+				ParseRDF.addQualifierNode(newChild, XML_LANG, element.attrValue[i]);
+			}
+			else if (NS_RDF.equals(attrNS)  &&
+					 ("ID".equals(attrLocal)  ||  "datatype".equals(attrLocal)))
+			{
+				continue;	// Ignore all rdf:ID and rdf:datatype attributes.
+			}
+			else
+			{
+				throw new XMPException(
+					"Invalid attribute for literal property element", BADRDF);
+			}
+		}
+
+		if (text == null)
+		{
+			StringBuffer textValue = new StringBuffer();
+			while (true)
+			{
+				int event = next(reader);
+				if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					break;
+				}
+				else if (event == XMLStreamConstants.CHARACTERS  ||
+						 event == XMLStreamConstants.SPACE)
+				{
+					textValue.append(reader.getTextCharacters(), reader.getTextStart(),
+						reader.getTextLength());
+				}
+				else
+				{
+					throw new XMPException("Invalid child of literal property element", BADRDF);
+				}
+			}
+			text = textValue.toString();
+		}
+		newChild.setValue(text);
+	}
+
+
+	/**
+	 * 7.2.18 parseTypeResourcePropertyElt
+	 *		start-element ( URI == propertyElementURIs,
+	 *			attributes == set ( idAttr?, parseResource ) )
+	 *		propertyEltList
+	 *		end-element()
+	 *
+	 * Add a new struct node with a qualifier for the possible rdf:ID attribute.
+	 * Then process the XML child nodes to get the struct fields.
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param element the start tag of the property element
+	 * @param reader a reader on the start tag of the property element
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_ParseTypeResourcePropertyElement(XMPMetaImpl xmp, XMPNode xmpParent,
+			Element element, XMLStreamReader reader, boolean isTopLevel)
+			throws XMPException, XMLStreamException
+	{
+		XMPNode newStruct = addElementNode (xmp, xmpParent, element, "", isTopLevel);
+
+		newStruct.getOptions().setStruct(true);
+
+		for (int i = 0; i < element.getAttributeCount(); i++)
+		{
+			String attrLocal = element.attrLocalName[i];
+			String attrNS = element.attrNamespace[i];
+			if (XML_LANG.equals(element.getAttributeName(i)))
+			{
+				ParseRDF.addQualifierNode (newStruct, XML_LANG, element.attrValue[i]);
+			}
+			else if (NS_RDF.equals(attrNS)  &&
+					 ("ID".equals(attrLocal)  ||  "parseType".equals(attrLocal)))
+			{
+				continue;	// The caller ensured the value is "Resource".
+							// Ignore all rdf:ID attributes.
+			}
+			else
+			{
+				throw new XMPException("Invalid attribute for ParseTypeResource property element",
+						BADRDF);
+			}
+		}
+
+		rdf_PropertyElementList (xmp, newStruct, reader, false);
+
+		if (newStruct.getHasValueChild())
+		{
+			ParseRDF.fixupQualifiedNode (newStruct);
+		}
+	}
+
+
+	/**
+	 * 7.2.21 emptyPropertyElt
+	 *		start-element ( URI == propertyElementURIs,
+	 *						attributes == set (
+	 *							idAttr?, ( resourceAttr | nodeIdAttr )?, propertyAttr* ) )
+	 *		end-element()
+	 *
+	 * @see ParseRDF#rdf_EmptyPropertyElement(XMPMetaImpl, XMPNode, org.w3c.dom.Node, boolean)
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param element the start tag of the property element
+	 * @param reader a reader on the start tag (or the end tag if the content has been read)
+	 * @param atEnd flag if the reader is on the end tag already
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @throws XMPException thown on parsing errors
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static void rdf_EmptyPropertyElement(XMPMetaImpl xmp, XMPNode xmpParent,
+			Element element, XMLStreamReader reader, boolean atEnd, boolean isTopLevel)
+			throws XMPException, XMLStreamException
+	{
+		boolean hasPropertyAttrs = false;
+		boolean hasResourceAttr = false;
+		boolean hasNodeIDAttr = false;
+		boolean hasValueAttr = false;
+
+		int valueAttr = -1;	// ! Can come from rdf:value or rdf:resource.
+
+		if (!atEnd  &&  next(reader) != XMLStreamConstants.END_ELEMENT)
+		{
+			throw new XMPException(
+					"Nested content not allowed with rdf:resource or property attributes",
+					BADRDF);
+		}
+
+		// First figure out what XMP this maps to and remember the attribute for a simple value.
+		for (int i = 0; i < element.getAttributeCount(); i++)
+		{
+			int attrTerm = element.getAttributeTermKind(i);
+
+			switch (attrTerm)
+			{
+				case ParseRDF.RDFTERM_ID :
+					// Nothing to do.
+					break;
+
+				case ParseRDF.RDFTERM_RESOURCE :
+					if (hasNodeIDAttr)
+					{
+						throw new XMPException(
+							"Empty property element can't have both rdf:resource and rdf:nodeID",
+							BADRDF);
+					}
+					else if (hasValueAttr)
+					{
+						throw new XMPException(
+								"Empty property element can't have both rdf:value and rdf:resource",
+								BADXMP);
+					}
+
+					hasResourceAttr = true;
+					if (!hasValueAttr)
+					{
+						valueAttr = i;
+					}
+					break;
+
+				case ParseRDF.RDFTERM_NODE_ID:
+					if (hasResourceAttr)
+					{
+						throw new XMPException(
+								"Empty property element can't have both rdf:resource and rdf:nodeID",
+								BADRDF);
+					}
+					hasNodeIDAttr = true;
+					break;
+
+				case ParseRDF.RDFTERM_OTHER:
+					if ("value".equals(element.attrLocalName[i])
+							&& NS_RDF.equals(element.attrNamespace[i]))
+					{
+						if (hasResourceAttr)
+						{
+							throw new XMPException(
+									"Empty property element can't have both rdf:value and rdf:resource",
+									BADXMP);
+						}
+						hasValueAttr = true;
+						valueAttr = i;
+					}
+					else if (!XML_LANG.equals(element.getAttributeName(i)))
+					{
+						hasPropertyAttrs = true;
+					}
+					break;
+
+				default:
+					throw new XMPException("Unrecognized attribute of empty property element",
+							BADRDF);
+			}
+		}
+
+		// Create the right kind of child node and visit the attributes again
+		// to add the fields or qualifiers.
+		XMPNode childNode = addElementNode(xmp, xmpParent, element, "", isTopLevel);
+		boolean childIsStruct = false;
+
+		if (hasValueAttr || hasResourceAttr)
+		{
+			childNode.setValue(valueAttr >= 0 ? element.attrValue[valueAttr] : "");
+			if (!hasValueAttr)
+			{
+				// ! Might have both rdf:value and rdf:resource.
+				childNode.getOptions().setURI(true);
+			}
+		}
+		else if (hasPropertyAttrs)
+		{
+			childNode.getOptions().setStruct(true);
+			childIsStruct = true;
+		}
+
+		for (int i = 0; i < element.getAttributeCount(); i++)
+		{
+			if (i == valueAttr)
+			{
+				continue;	// Skip the rdf:value or rdf:resource attribute holding the value.
+			}
+
+			int attrTerm = element.getAttributeTermKind(i);
+
+			switch (attrTerm)
+			{
+				case ParseRDF.RDFTERM_ID :
+				case ParseRDF.RDFTERM_NODE_ID :
+					break;	// Ignore all rdf:ID and rdf:nodeID attributes.
+
+				case ParseRDF.RDFTERM_RESOURCE :
+					ParseRDF.addQualifierNode(childNode, "rdf:resource", element.attrValue[i]);
+					break;
+
+				case ParseRDF.RDFTERM_OTHER :
+					if (!childIsStruct)
+					{
+						ParseRDF.addQualifierNode(
+							childNode, element.getAttributeName(i), element.attrValue[i]);
+					}
+					else if (XML_LANG.equals(element.getAttributeName(i)))
+					{
+						ParseRDF.addQualifierNode (childNode, XML_LANG, element.attrValue[i]);
+					}
+					else
+					{
+						addAttributeNode (xmp, childNode, element, i, false);
+					}
+					break;
+
+				default :
+					throw new XMPException("Unrecognized attribute of empty property element",
+						BADRDF);
+			}
+		}
+	}
+
+
+	/**
+	 * Adds a child node for an element.
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param element the start tag of the element
+	 * @param value Node value
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @return Returns the newly created child node.
+	 * @throws XMPException thown on parsing errors
+	 */
+	private static XMPNode addElementNode(XMPMetaImpl xmp, XMPNode xmpParent, Element element,
+			String value, boolean isTopLevel) throws XMPException
+	{
+		return ParseRDF.addChildNode(xmp, xmpParent, element.namespace, element.prefix,
+			element.localName, value, isTopLevel);
+	}
+
+
+	/**
+	 * Adds a child node for an attribute (its value is the node value).
+	 *
+	 * @param xmp the xmp metadata object that is generated
+	 * @param xmpParent the parent xmp node
+	 * @param element the start tag of the element
+	 * @param i the attribute index
+	 * @param isTopLevel Flag if the node is a top-level node
+	 * @return Returns the newly created child node.
+	 * @throws XMPException thown on parsing errors
+	 */
+	private static XMPNode addAttributeNode(XMPMetaImpl xmp, XMPNode xmpParent, Element element,
+			int i, boolean isTopLevel) throws XMPException
+	{
+		return ParseRDF.addChildNode(xmp, xmpParent, element.attrNamespace[i],
+			element.attrPrefix[i], element.attrLocalName[i], element.attrValue[i], isTopLevel);
+	}
+
+
+	/**
+	 * Skips the rest of the current element (the reader ends on its end tag).
+	 *
+	 * @param reader a reader inside an element
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	static void skipElement(XMLStreamReader reader) throws XMLStreamException
+	{
+		for (int depth = 0; reader.hasNext();)
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT  &&  depth-- == 0)
+			{
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * The next event that is not a comment (comments are ignored like the DOM parser does).
+	 *
+	 * @param reader the reader
+	 * @return Returns the event type.
+	 * @throws XMLStreamException thown on XML errors
+	 */
+	private static int next(XMLStreamReader reader) throws XMLStreamException
+	{
+		int event;
+		do
+		{
+			event = reader.next();
+		}
+		while (event == XMLStreamConstants.COMMENT);
+		return event;
+	}
+
+
+	/**
+	 * @param reader the reader
+	 * @param event the current event
+	 * @return Returns whether the event is text containing only whitespaces.
+	 */
+	private static boolean isWhitespace(XMLStreamReader reader, int event)
+	{
+		if (event != XMLStreamConstants.CHARACTERS  &&  event != XMLStreamConstants.SPACE)
+		{
+			return false;
+		}
+		char[] chars = reader.getTextCharacters();
+		for (int i = reader.getTextStart(), end = i + reader.getTextLength(); i < end; i++)
+		{
+			if (!Character.isWhitespace(chars[i]))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * @param text some text
+	 * @return Returns whether the text contains only whitespaces.
+	 */
+	private static boolean isWhitespace(CharSequence text)
+	{
+		for (int i = 0; i < text.length(); i++)
+		{
+			if (!Character.isWhitespace(text.charAt(i)))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * StAX reports "no namespace" and "no prefix" as empty strings, the DOM as <code>null</code>.
+	 *
+	 * @param value a namespace URI or prefix
+	 * @return Returns the value or <code>null</code> if it is empty.
+	 */
+	private static String emptyToNull(String value)
+	{
+		return value == null  ||  value.length() == 0 ? null : value;
+	}
+}
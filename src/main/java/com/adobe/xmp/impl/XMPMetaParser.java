@@ -20,6 +20,10 @@ import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -40,6 +44,9 @@ import com.adobe.xmp.options.ParseOptions;
  * This class replaces the <code>ExpatAdapter.cpp</code> and does the
  * XML-parsing and fixes the prefix. After the parsing several normalisations
  * are applied to the XMPTree.
+ * <p>
+ * By default the XMP tree is built straight from StAX events ({@link ParseRDFStream}),
+ * with {@link ParseOptions#USE_DOM} a DOM is built first and walked by {@link ParseRDF}.
  * 
  * @since 01.02.2006
  */
@@ -47,8 +54,19 @@ public class XMPMetaParser
 {
 	/**  */
 	private static final Object XMP_RDF = new Object();
-	/** the DOM Parser Factory, options are set */ 
-	private static DocumentBuilderFactory factory = createDocumentBuilderFactory();
+	/** the DOM Parser Factory, options are set once when it is created */ 
+	private static final DocumentBuilderFactory factory = createDocumentBuilderFactory();
+	/** the DOM builders, one per thread as builders are not thread safe, reset after each use */
+	private static final ThreadLocal<DocumentBuilder> domBuilder = new ThreadLocal<DocumentBuilder>();
+	/** the StAX factories, one per thread as the readers they create are not thread safe */
+	private static final ThreadLocal<XMLInputFactory> staxFactory = 
+		new ThreadLocal<XMLInputFactory>()
+		{
+			protected XMLInputFactory initialValue()
+			{
+				return createXMLInputFactory();
+			}
+		};
 
 	/**
 	 * Hidden constructor, initialises the SAX parser handler.
@@ -75,15 +93,28 @@ public class XMPMetaParser
 		ParameterAsserts.assertNotNull(input);
 		options = options != null ? options : new ParseOptions();
 
-		Document document = parseXml(input, options);
+		Object parsed = parseXml(input, options);
 
-		boolean xmpmetaRequired = options.getRequireXMPMeta();
-		Object[] result = new Object[3];
-		result = findRootNode(document, xmpmetaRequired, result);
+		Object[] result;
+		if (parsed instanceof Document)
+		{
+			boolean xmpmetaRequired = options.getRequireXMPMeta();
+			result = new Object[3];
+			result = findRootNode((Document) parsed, xmpmetaRequired, result);
+			if (result != null  &&  result[1] == XMP_RDF)
+			{
+				result[0] = ParseRDF.parse((Node) result[0]);
+			}
+		}
+		else
+		{
+			// the StAX parse has built the XMP tree already
+			result = (Object[]) parsed;
+		}
 		
 		if (result != null  &&  result[1] == XMP_RDF)
 		{
-			XMPMetaImpl xmp = ParseRDF.parse((Node) result[0]);
+			XMPMetaImpl xmp = (XMPMetaImpl) result[0];
 			xmp.setPacketHeader((String) result[2]);
 			
 			// Check if the XMP object shall be normalized
@@ -118,10 +149,11 @@ public class XMPMetaParser
 	 * @param input the input can be an <code>InputStream</code>, a <code>String</code> or 
 	 * 			a byte buffer containing the XMP packet.
 	 * @param options the parsing options
-	 * @return Returns the parsed XML document or an exception.
+	 * @return Returns the parsed XML document (or the StAX result, 
+	 * 			see {@link #parseInputSource(InputSource, ParseOptions)}).
 	 * @throws XMPException Thrown if the parsing fails for different reasons
 	 */
-	private static Document parseXml(Object input, ParseOptions options)
+	private static Object parseXml(Object input, ParseOptions options)
 			throws XMPException
 	{
 		if (input instanceof InputStream)
@@ -145,15 +177,15 @@ public class XMPMetaParser
 	 *  
 	 * @param stream an <code>InputStream</code>
 	 * @param options the parsing options
-	 * @return Returns an XML DOM-Document.
+	 * @return Returns an XML DOM-Document (or the StAX result).
 	 * @throws XMPException Thrown when the parsing fails.
 	 */
-	private static Document parseXmlFromInputStream(InputStream stream, ParseOptions options)
+	private static Object parseXmlFromInputStream(InputStream stream, ParseOptions options)
 			throws XMPException
 	{
 		if (!options.getAcceptLatin1()  &&  !options.getFixControlChars())
 		{
-			return parseInputSource(new InputSource(stream));
+			return parseInputSource(new InputSource(stream), options);
 		}
 		else
 		{
@@ -178,28 +210,16 @@ public class XMPMetaParser
 	 * 
 	 * @param buffer a byte buffer containing the XMP packet
 	 * @param options the parsing options
-	 * @return Returns an XML DOM-Document.
+	 * @return Returns an XML DOM-Document (or the StAX result).
 	 * @throws XMPException Thrown when the parsing fails.
 	 */
-	private static Document parseXmlFromBytebuffer(ByteBuffer buffer, ParseOptions options)
+	private static Object parseXmlFromBytebuffer(ByteBuffer buffer, ParseOptions options)
 		throws XMPException
 	{
 		InputSource source = new InputSource(buffer.getByteStream());
 		try
 		{
-			if (options.getDisallowDoctype())
-			{
-				try
-				{
-				    factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-				}
-				catch(Throwable e)
-				{
-				    
-				}
-			}
-			
-			return parseInputSource(source);
+			return parseInputSource(source, options);
 		}
 		catch (XMPException e)
 		{
@@ -219,7 +239,7 @@ public class XMPMetaParser
 						Reader fixReader = new FixASCIIControlsReader(
 							new InputStreamReader(
 								buffer.getByteStream(), encoding));
-						return parseInputSource(new InputSource(fixReader));
+						return parseInputSource(new InputSource(fixReader), options);
 					}
 					catch (UnsupportedEncodingException e1)
 					{
@@ -229,7 +249,7 @@ public class XMPMetaParser
 					}
 				}
 				source = new InputSource(buffer.getByteStream());
-				return parseInputSource(source);
+				return parseInputSource(source, options);
 			}
 			else
 			{
@@ -245,36 +265,23 @@ public class XMPMetaParser
 	 *  
 	 * @param input a <code>String</code> containing the XMP packet
 	 * @param options the parsing options
-	 * @return Returns an XML DOM-Document.
+	 * @return Returns an XML DOM-Document (or the StAX result).
 	 * @throws XMPException Thrown when the parsing fails.
 	 */
-	private static Document parseXmlFromString(String input, ParseOptions options)
+	private static Object parseXmlFromString(String input, ParseOptions options)
 			throws XMPException
 	{
 		InputSource source = new InputSource(new StringReader(input));
 		try
 		{
-			if (options.getDisallowDoctype())
-			{
-				try
-				{
-					factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-				}
-				catch(Throwable e)
-				{
-					    
-				}
-			}
-			source = new InputSource(new StringReader(input));
-			
-			return parseInputSource(source);
+			return parseInputSource(source, options);
 		}
 		catch (XMPException e)
 		{
 			if (e.getErrorCode() == XMPError.BADXML  &&  options.getFixControlChars())
 			{
 				source = new InputSource(new FixASCIIControlsReader(new StringReader(input)));
-				return parseInputSource(source);
+				return parseInputSource(source, options);
 			}
 			else
 			{
@@ -287,15 +294,23 @@ public class XMPMetaParser
 	/**
 	 * Runs the XML-Parser. 
 	 * @param source an <code>InputSource</code>
-	 * @return Returns an XML DOM-Document.
+	 * @param options the parsing options
+	 * @return Returns an XML DOM-Document if the option {@link ParseOptions#USE_DOM} is set, 
+	 * 		otherwise the result of {@link #parseStax(InputSource, ParseOptions)}.
 	 * @throws XMPException Wraps parsing and I/O-exceptions into an XMPException.
 	 */
-	private static Document parseInputSource(InputSource source) throws XMPException
+	private static Object parseInputSource(InputSource source, ParseOptions options)
+		throws XMPException
 	{
+		if (!options.getUseDOM())
+		{
+			return parseStax(source, options);
+		}
+		
+		DocumentBuilder builder = null;
 		try
 		{
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			builder.setErrorHandler(null);
+			builder = getDocumentBuilder();
 			return builder.parse(source);
 		}
 		catch (SAXException e)
@@ -311,6 +326,201 @@ public class XMPMetaParser
 		{
 			throw new XMPException("Error reading the XML-file", XMPError.BADSTREAM, e);
 		}
+		finally
+		{
+			if (builder != null)
+			{
+				releaseDocumentBuilder(builder);
+			}
+		}
+	}
+	
+	
+	/**
+	 * @return Returns the document builder of the current thread, 
+	 * 		it is created from the configured factory on first use.
+	 * @throws ParserConfigurationException if the builder can't be created
+	 */
+	private static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException
+	{
+		DocumentBuilder builder = domBuilder.get();
+		if (builder == null)
+		{
+			builder = factory.newDocumentBuilder();
+			domBuilder.set(builder);
+		}
+		builder.setErrorHandler(null);
+		return builder;
+	}
+	
+	
+	/**
+	 * Resets the builder to its configured state for the next parse, 
+	 * a builder that can't be reset is dropped and a new one is created next time.
+	 * 
+	 * @param builder the builder of the current thread
+	 */
+	private static void releaseDocumentBuilder(DocumentBuilder builder)
+	{
+		try
+		{
+			builder.reset();
+		}
+		catch (UnsupportedOperationException e)
+		{
+			domBuilder.remove();
+		}
+	}
+	
+
+	/**
+	 * Runs the StAX parser, finds the root of the XMP data tree the same way as
+	 * {@link #findRootNode(Node, boolean, Object[])} does and builds the XMP tree from it.
+	 * The rest of the document is read as well, so it has to be well-formed like for the DOM.
+	 * 
+	 * @param source an <code>InputSource</code> with a byte or character stream
+	 * @param options the parsing options
+	 * @return Returns an array that contains the result or <code>null</code>:
+	 * <ul>
+	 * 		<li>[0] - the (not normalized) XMP metadata object
+	 * 		<li>[1] - XMP_RDF
+	 * 		<li>[2] - the body text of the xpacket-instruction.
+	 * </ul>
+	 * @throws XMPException Wraps parsing and I/O-exceptions into an XMPException.
+	 */
+	private static Object[] parseStax(InputSource source, ParseOptions options)
+		throws XMPException
+	{
+		XMLStreamReader reader = null;
+		try
+		{
+			XMLInputFactory factory = staxFactory.get();
+			reader = source.getCharacterStream() != null ? 
+				factory.createXMLStreamReader(source.getCharacterStream()) :
+				factory.createXMLStreamReader(source.getByteStream());
+			
+			Object[] result = findRootElement(reader, options.getRequireXMPMeta(), new Object[3]);
+			while (reader.hasNext())
+			{
+				checkEvent(reader.next());
+			}
+			return result;
+		}
+		catch (XMLStreamException e)
+		{
+			if (e.getNestedException() instanceof IOException)
+			{
+				throw new XMPException("Error reading the XML-file", XMPError.BADSTREAM, e);
+			}
+			throw new XMPException("XML parsing failure", XMPError.BADXML, e);
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (XMLStreamException e)
+				{
+					// ignore
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * The streaming counterpart of {@link #findRootNode(Node, boolean, Object[])}: 
+	 * reads the content of the current element (or the document) in order, 
+	 * descending into child elements, until the rdf:RDF element is found and parsed.
+	 * 
+	 * @param reader a reader on the start of the document or a start tag, 
+	 * 		it ends on the end tag of the element (or the end of the document) 
+	 * 		or on the end tag of the rdf:RDF element if one was found.
+	 * @param xmpmetaRequired flag if the xmpmeta-tag is still required
+	 * @param result The result array that is filled during the recursive process.
+	 * @return Returns the result array if the rdf:RDF was found or <code>null</code>.
+	 * @throws XMLStreamException Thrown if the XML is not well-formed
+	 * @throws XMPException Thrown if the RDF is invalid
+	 */
+	private static Object[] findRootElement(XMLStreamReader reader, boolean xmpmetaRequired, 
+		Object[] result) throws XMLStreamException, XMPException
+	{
+		while (reader.hasNext())
+		{
+			int event = checkEvent(reader.next());
+			if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				return null;
+			}
+			else if (event == XMLStreamConstants.PROCESSING_INSTRUCTION  &&
+				XMPConst.XMP_PI.equals(reader.getPITarget()))
+			{
+				// Store the processing instructions content
+				result[2] = reader.getPIData();
+			}
+			else if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				String rootNS = reader.getNamespaceURI();
+				String rootLocal = reader.getLocalName();
+				if (
+						(
+							XMPConst.TAG_XMPMETA.equals(rootLocal)  ||  
+							XMPConst.TAG_XAPMETA.equals(rootLocal)
+						)  &&
+						XMPConst.NS_X.equals(rootNS)
+				   )
+				{
+					// by not passing the RequireXMPMeta-option, the rdf-Node will be valid;
+					// the search ends with the first x:xmpmeta, skip its siblings
+					Object[] newResult = findRootElement(reader, false, result);
+					if (newResult == null)
+					{
+						ParseRDFStream.skipElement(reader);
+					}
+					return newResult;
+				}
+				else if (!xmpmetaRequired  &&
+						"RDF".equals(rootLocal)  &&
+						 XMPConst.NS_RDF.equals(rootNS))
+				{	
+					result[0] = ParseRDFStream.parse(reader);
+					result[1] = XMP_RDF;
+					return result;
+				}
+				else
+				{
+					// continue searching
+					Object[] newResult = findRootElement(reader, xmpmetaRequired, result);
+					if (newResult != null)
+					{
+						return newResult;
+					}
+				}
+			}
+		}
+		
+		// no appropriate node has been found
+		return null;
+	}
+	
+	
+	/**
+	 * DOCTYPE declarations are always rejected (as the DOM factory does).
+	 * 
+	 * @param event a StAX event
+	 * @return Returns the event.
+	 * @throws XMLStreamException Thrown for a DTD event.
+	 */
+	private static int checkEvent(int event) throws XMLStreamException
+	{
+		if (event == XMLStreamConstants.DTD)
+		{
+			throw new XMLStreamException("DOCTYPE is disallowed");
+		}
+		return event;
 	}
 	
 
@@ -411,6 +621,30 @@ public class XMPMetaParser
 	}
 
 	
+	/**
+	 * @return Creates and configures a StAX factory for the Metadata Parser: 
+	 * 		namespace aware, without DTD support or external entities.
+	 */
+	private static XMLInputFactory createXMLInputFactory()
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		try
+		{
+			// CDATA is not text in RDF (it is a separate node in the DOM)
+			factory.setProperty("http://java.sun.com/xml/stream/properties/report-cdata-event",
+				Boolean.TRUE);
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Ignore, the configured StAX parser does not implement the property.
+		}
+		return factory;
+	}
+	
+	
 	/**
 	 * @return Creates, configures and returnes the document builder factory for
 	 *         the Metadata Parser.
@@ -421,47 +655,58 @@ public class XMPMetaParser
 		factory.setNamespaceAware(true);
 		factory.setIgnoringComments(true);
 		
-		try
-		{
-			// honor System parsing limits, e.g.
-			// System.setProperty("entityExpansionLimit", "10");
-			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-			
-			String FEATURE = "http://apache.org/xml/features/disallow-doctype-decl";
-            factory.setFeature(FEATURE, true);
+		// honor System parsing limits, e.g.
+		// System.setProperty("entityExpansionLimit", "10");
+		setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		
+		// each feature is set on its own, so one that the configured XML-Parser 
+		// does not implement doesn't leave the following ones unset
+		setFeature(factory, "http://apache.org/xml/features/disallow-doctype-decl", true);
 
-            // If you can't completely disable DTDs, then at least do the following:
-            // Xerces 1 - http://xerces.apache.org/xerces-j/features.html#external-general-entities
-            // Xerces 2 - http://xerces.apache.org/xerces2-j/features.html#external-general-entities
-            // JDK7+ - http://xml.org/sax/features/external-general-entities    
-            FEATURE = "http://xml.org/sax/features/external-general-entities";
-            factory.setFeature(FEATURE, false);
-            
-            FEATURE = "http://xerces.apache.org/xerces2-j/features.html#disallow-doctype-decl";
-            factory.setFeature(FEATURE, false);
+		// If you can't completely disable DTDs, then at least do the following:
+		// Xerces 1 - http://xerces.apache.org/xerces-j/features.html#external-general-entities
+		// Xerces 2 - http://xerces.apache.org/xerces2-j/features.html#external-general-entities
+		// JDK7+ - http://xml.org/sax/features/external-general-entities
+		setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
 
-            // Xerces 1 - http://xerces.apache.org/xerces-j/features.html#external-parameter-entities
-            // Xerces 2 - http://xerces.apache.org/xerces2-j/features.html#external-parameter-entities
-            // JDK7+ - http://xml.org/sax/features/external-parameter-entities    
-            FEATURE = "http://xml.org/sax/features/external-parameter-entities";
-            factory.setFeature(FEATURE, false);
-            
-            FEATURE = "http://xerces.apache.org/xerces2-j/features.html#external-parameter-entities";
-            factory.setFeature(FEATURE, false);
+		// Xerces 1 - http://xerces.apache.org/xerces-j/features.html#external-parameter-entities
+		// Xerces 2 - http://xerces.apache.org/xerces2-j/features.html#external-parameter-entities
+		// JDK7+ - http://xml.org/sax/features/external-parameter-entities
+		setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
 
-            // Disable external DTDs as well
-            FEATURE = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
-            factory.setFeature(FEATURE, false);
+		// Disable external DTDs as well
+		setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
 
-            // and these as well, per Timothy Morgan's 2014 paper: "XML Schema, DTD, and Entity Attacks" (see reference below)
-            factory.setXIncludeAware(false);
-            factory.setExpandEntityReferences(false);
+		// and these as well, per Timothy Morgan's 2014 paper: "XML Schema, DTD, and Entity Attacks"
+		try
+		{
+			factory.setXIncludeAware(false);
 		}
-		catch (Exception e)
+		catch (UnsupportedOperationException e)
 		{
-			// Ignore IllegalArgumentException and ParserConfigurationException
-			// in case the configured XML-Parser does not implement the feature.
-		}		
+			// Ignore, the configured XML-Parser does not implement XInclude.
+		}
+		factory.setExpandEntityReferences(false);
 		return factory;
 	}
+	
+	
+	/**
+	 * Sets a feature of the document builder factory.
+	 * 
+	 * @param factory the factory
+	 * @param feature the feature URI
+	 * @param value the value
+	 */
+	private static void setFeature(DocumentBuilderFactory factory, String feature, boolean value)
+	{
+		try
+		{
+			factory.setFeature(feature, value);
+		}
+		catch (ParserConfigurationException e)
+		{
+			// Ignore in case the configured XML-Parser does not implement the feature.
+		}
+	}
 }
\ No newline at end of file
@@ -12,9 +12,11 @@ package com.adobe.xmp.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 import com.adobe.xmp.XMPConst;
 import com.adobe.xmp.XMPError;
@@ -35,6 +37,8 @@ import com.adobe.xmp.options.PropertyOptions;
  * @since 21.02.2006
  */
 class XMPNode implements Comparable<Object> {
+  /** number of children or qualifier from which on they are looked up by a name index */
+  private static final int INDEX_THRESHOLD = 16;
   /** name of the node, contains different information depending of the node kind */
   private String name;
   /** value of the node, contains different information depending of the node kind */
@@ -45,6 +49,10 @@ class XMPNode implements Comparable<Object> {
   private List<XMPNode> children = null;
   /** list of qualifier of the node, lazy initialized */
   private List<XMPNode> qualifier = null;
+  /** index of the children by name, created once there are <code>INDEX_THRESHOLD</code> */
+  private Map<String, XMPNode> childIndex = null;
+  /** index of the qualifier by name, created once there are <code>INDEX_THRESHOLD</code> */
+  private Map<String, XMPNode> qualifierIndex = null;
   /** options describing the kind of the node */
   private PropertyOptions options = null;
 
@@ -95,6 +103,8 @@ class XMPNode implements Comparable<Object> {
     value = null;
     children = null;
     qualifier = null;
+    childIndex = null;
+    qualifierIndex = null;
   }
 
 
@@ -126,6 +136,7 @@ class XMPNode implements Comparable<Object> {
     assertChildNotExisting(node.getName());
     node.setParent(this);
     getChildren().add(node);
+    childIndex = index(childIndex, children, node);
   }
 
 
@@ -142,6 +153,7 @@ class XMPNode implements Comparable<Object> {
     assertChildNotExisting(node.getName());
     node.setParent(this);
     getChildren().add(index - 1, node);
+    childIndex = index(childIndex, children, node);
   }
 
 
@@ -154,7 +166,8 @@ class XMPNode implements Comparable<Object> {
    */
   public void replaceChild(int index, XMPNode node) {
     node.setParent(this);
-    getChildren().set(index - 1, node);
+    unindex(childIndex, children, getChildren().set(index - 1, node));
+    childIndex = index(childIndex, children, node);
   }
 
 
@@ -164,7 +177,7 @@ class XMPNode implements Comparable<Object> {
    * @param itemIndex the index to remove [1..size]
    */
   public void removeChild(int itemIndex) {
-    getChildren().remove(itemIndex - 1);
+    unindex(childIndex, children, getChildren().remove(itemIndex - 1));
     cleanupChildren();
   }
 
@@ -175,7 +188,9 @@ class XMPNode implements Comparable<Object> {
    * @param node the child node to delete.
    */
   public void removeChild(XMPNode node) {
-    getChildren().remove(node);
+    if (getChildren().remove(node)) {
+      unindex(childIndex, children, node);
+    }
     cleanupChildren();
   }
 
@@ -187,6 +202,7 @@ class XMPNode implements Comparable<Object> {
   protected void cleanupChildren() {
     if (children.isEmpty()) {
       children = null;
+      childIndex = null;
     }
   }
 
@@ -196,6 +212,7 @@ class XMPNode implements Comparable<Object> {
    */
   public void removeChildren() {
     children = null;
+    childIndex = null;
   }
 
 
@@ -212,7 +229,7 @@ class XMPNode implements Comparable<Object> {
    * @return Returns an <code>XMPNode</code> if node has been found, <code>null</code> otherwise.
    */
   public XMPNode findChildByName(String expr) {
-    return find(getChildren(), expr);
+    return find(getChildren(), childIndex, expr);
   }
 
 
@@ -258,6 +275,7 @@ class XMPNode implements Comparable<Object> {
       // other qualifiers are appended
       getQualifier().add(qualNode);
     }
+    qualifierIndex = index(qualifierIndex, qualifier, qualNode);
   }
 
 
@@ -276,10 +294,13 @@ class XMPNode implements Comparable<Object> {
       opts.setHasType(false);
     }
 
-    getQualifier().remove(qualNode);
+    if (getQualifier().remove(qualNode)) {
+      unindex(qualifierIndex, qualifier, qualNode);
+    }
     if (qualifier.isEmpty()) {
       opts.setHasQualifiers(false);
       qualifier = null;
+      qualifierIndex = null;
     }
 
   }
@@ -295,6 +316,7 @@ class XMPNode implements Comparable<Object> {
     opts.setHasLanguage(false);
     opts.setHasType(false);
     qualifier = null;
+    qualifierIndex = null;
   }
 
 
@@ -304,7 +326,7 @@ class XMPNode implements Comparable<Object> {
    *         otherwise.
    */
   public XMPNode findQualifierByName(String expr) {
-    return find(qualifier, expr);
+    return find(qualifier, qualifierIndex, expr);
   }
 
 
@@ -322,7 +344,26 @@ class XMPNode implements Comparable<Object> {
    */
   public Iterator<?> iterateChildren() {
     if (children != null) {
-      return getChildren().iterator();
+      final Iterator<XMPNode> it = getChildren().iterator();
+
+      return new Iterator<Object>() {
+        private XMPNode last;
+
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        public Object next() {
+          return last = it.next();
+        }
+
+        public void remove() {
+          it.remove();
+          // keep the name index in sync
+          unindex(childIndex, children, last);
+        }
+
+      };
     } else {
       return Collections.EMPTY_LIST.listIterator();
     }
@@ -448,7 +489,11 @@ class XMPNode implements Comparable<Object> {
    * @param name The name to set.
    */
   public void setName(String name) {
+    String oldName = this.name;
     this.name = name;
+    if (parent != null && (name == null ? oldName != null : !name.equals(oldName))) {
+      parent.reindex(this, oldName);
+    }
   }
 
 
@@ -751,7 +796,10 @@ class XMPNode implements Comparable<Object> {
    * @param expr the search expression
    * @return Returns the found node or <code>nulls</code>.
    */
-  private XMPNode find(List<XMPNode> list, String expr) {
+  private XMPNode find(List<XMPNode> list, Map<String, XMPNode> index, String expr) {
+    if (index != null && !XMPConst.ARRAY_ITEM_NAME.equals(expr)) {
+      return index.get(expr);
+    }
 
     if (list != null) {
       for (Iterator<XMPNode> it = list.iterator(); it.hasNext();) {
@@ -789,4 +837,115 @@ class XMPNode implements Comparable<Object> {
       throw new XMPException("Duplicate '" + qualifierName + "' qualifier", XMPError.BADXMP);
     }
   }
+
+
+  /**
+   * Adds a node that has just been added to the list to the name index, the index is created once
+   * the list reaches <code>INDEX_THRESHOLD</code>. Array items are not indexed as they all share the
+   * same name, for a duplicated name the first node in the list is the one that is found (like
+   * with the linear search).
+   * 
+   * @param index the index of the list or <code>null</code>
+   * @param list the children or qualifier
+   * @param node the added node
+   * @return Returns the index or <code>null</code> while the list is small.
+   */
+  private static Map<String, XMPNode> index(Map<String, XMPNode> index, List<XMPNode> list, XMPNode node) {
+    if (index == null) {
+      if (list.size() < INDEX_THRESHOLD) {
+        return null;
+      }
+      index = new HashMap<String, XMPNode>(list.size() * 2);
+      for (XMPNode n : list) {
+        if (!XMPConst.ARRAY_ITEM_NAME.equals(n.getName()) && !index.containsKey(n.getName())) {
+          index.put(n.getName(), n);
+        }
+      }
+    } else {
+      put(index, list, node);
+    }
+    return index;
+  }
+
+
+  /**
+   * Adds a node of the list to the name index, if its name is already indexed the list is scanned
+   * for the first node of that name.
+   * 
+   * @param index the index of the list
+   * @param list the children or qualifier
+   * @param node the node
+   */
+  private static void put(Map<String, XMPNode> index, List<XMPNode> list, XMPNode node) {
+    if (XMPConst.ARRAY_ITEM_NAME.equals(node.getName())) {
+      return;
+    }
+    XMPNode indexed = index.get(node.getName());
+    if (indexed == null) {
+      index.put(node.getName(), node);
+    } else if (indexed != node) {
+      rescan(index, list, node.getName());
+    }
+  }
+
+
+  /**
+   * Removes a node that is no longer in the list from the name index, if it was indexed the list is
+   * scanned for another node of that name.
+   * 
+   * @param index the index of the list or <code>null</code>
+   * @param list the children or qualifier
+   * @param node the removed node
+   */
+  private static void unindex(Map<String, XMPNode> index, List<XMPNode> list, XMPNode node) {
+    if (index != null && node != null && index.get(node.getName()) == node) {
+      rescan(index, list, node.getName());
+    }
+  }
+
+
+  /**
+   * Indexes the first node of the list with the name (or none if there is no such node).
+   * 
+   * @param index the index of the list
+   * @param list the children or qualifier
+   * @param name the name to look up
+   */
+  private static void rescan(Map<String, XMPNode> index, List<XMPNode> list, String name) {
+    index.remove(name);
+    if (name != null) {
+      for (XMPNode n : list) {
+        if (name.equals(n.getName())) {
+          index.put(name, n);
+          return;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Updates the name indexes when a child or qualifier has been renamed.
+   * 
+   * @param node the renamed child or qualifier
+   * @param oldName its previous name
+   */
+  private void reindex(XMPNode node, String oldName) {
+    reindex(childIndex, children, node, oldName);
+    reindex(qualifierIndex, qualifier, node, oldName);
+  }
+
+
+  private static void reindex(Map<String, XMPNode> index, List<XMPNode> list, XMPNode node, String oldName) {
+    if (index == null) {
+      return;
+    }
+    if (index.get(oldName) == node) {
+      rescan(index, list, oldName);
+    } else if (!list.contains(node)) {
+      // not a node of this list
+      return;
+    }
+    put(index, list, node);
+  }
 }
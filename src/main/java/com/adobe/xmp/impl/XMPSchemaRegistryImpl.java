@@ -22,6 +22,7 @@ import com.adobe.xmp.XMPConst;
 import com.adobe.xmp.XMPError;
 import com.adobe.xmp.XMPException;
 import com.adobe.xmp.XMPSchemaRegistry;
+import com.adobe.xmp.impl.xpath.XMPPathParser;
 import com.adobe.xmp.options.AliasOptions;
 import com.adobe.xmp.properties.XMPAliasInfo;
 
@@ -29,20 +30,15 @@ import com.adobe.xmp.properties.XMPAliasInfo;
 /**
  * The schema registry handles the namespaces, aliases and global options for the XMP Toolkit. There
  * is only one single instance used by the toolkit.
+ * <p>
+ * Lookups read an immutable snapshot without locking, only the registrations are synchronized.
  * 
  * @since 27.01.2006
  */
 public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 {
-	/** a map from a namespace URI to its registered prefix */
-	private Map<String, String> namespaceToPrefixMap = new HashMap<String, String>();
-
-	/** a map from a prefix to the associated namespace URI */
-	private Map<String, String> prefixToNamespaceMap = new HashMap<String, String>();
-
-	/** a map of all registered aliases. 
-	 *  The map is a relationship from a qname to an <code>XMPAliasInfo</code>-object. */
-	private Map<String, XMPAliasInfo> aliasMap = new HashMap<String, XMPAliasInfo>();
+	/** the registered namespaces and aliases, replaced as a whole on every change */
+	private volatile Snapshot snapshot = new Snapshot();
 	/** The pattern that must not be contained in simple properties */
 	private Pattern p = Pattern.compile("[/*?\\[\\]]");
 
@@ -89,8 +85,9 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 			throw new XMPException("The prefix is a bad XML name", XMPError.BADXML);
 		}
 		
-		String registeredPrefix = (String) namespaceToPrefixMap.get(namespaceURI);
-		String registeredNS = (String) prefixToNamespaceMap.get(suggestedPrefix);
+		Snapshot current = snapshot;
+		String registeredPrefix = (String) current.namespaceToPrefixMap.get(namespaceURI);
+		String registeredNS = (String) current.prefixToNamespaceMap.get(suggestedPrefix);
 		if (registeredPrefix != null)
 		{
 			// Return the actual prefix
@@ -103,7 +100,7 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 				// the namespace is new, but the prefix is already engaged,
 				// we generate a new prefix out of the suggested
 				String generatedPrefix = suggestedPrefix;
-				for (int i = 1; prefixToNamespaceMap.containsKey(generatedPrefix); i++)
+				for (int i = 1; current.prefixToNamespaceMap.containsKey(generatedPrefix); i++)
 				{
 					generatedPrefix = suggestedPrefix
 							.substring(0, suggestedPrefix.length() - 1)
@@ -111,8 +108,11 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 				}
 				suggestedPrefix = generatedPrefix;
 			}			
-			prefixToNamespaceMap.put(suggestedPrefix, namespaceURI);
-			namespaceToPrefixMap.put(namespaceURI, suggestedPrefix);
+			Snapshot next = new Snapshot(current);
+			next.prefixToNamespaceMap.put(suggestedPrefix, namespaceURI);
+			next.namespaceToPrefixMap.put(namespaceURI, suggestedPrefix);
+			snapshot = next;
+			XMPPathParser.invalidateCache();
 			
 			// Return the suggested prefix
 			return suggestedPrefix;
@@ -125,11 +125,15 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 	 */
 	public synchronized void deleteNamespace(String namespaceURI)
 	{
-		String prefixToDelete = getNamespacePrefix(namespaceURI);
+		Snapshot current = snapshot;
+		String prefixToDelete = current.namespaceToPrefixMap.get(namespaceURI);
 		if (prefixToDelete != null)
 		{	
-			namespaceToPrefixMap.remove(namespaceURI);
-			prefixToNamespaceMap.remove(prefixToDelete);
+			Snapshot next = new Snapshot(current);
+			next.namespaceToPrefixMap.remove(namespaceURI);
+			next.prefixToNamespaceMap.remove(prefixToDelete);
+			snapshot = next;
+			XMPPathParser.invalidateCache();
 		}	
 	}
 
@@ -137,40 +141,42 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 	/**
 	 * @see XMPSchemaRegistry#getNamespacePrefix(String)
 	 */
-	public synchronized String getNamespacePrefix(String namespaceURI)
+	public String getNamespacePrefix(String namespaceURI)
 	{
-		return (String) namespaceToPrefixMap.get(namespaceURI);
+		return (String) snapshot.namespaceToPrefixMap.get(namespaceURI);
 	}
 
 
 	/**
 	 * @see XMPSchemaRegistry#getNamespaceURI(String)
 	 */
-	public synchronized String getNamespaceURI(String namespacePrefix)
+	public String getNamespaceURI(String namespacePrefix)
 	{
 		if (namespacePrefix != null  &&  !namespacePrefix.endsWith(":"))
 		{
 			namespacePrefix += ":";
 		}
-		return (String) prefixToNamespaceMap.get(namespacePrefix);
+		return (String) snapshot.prefixToNamespaceMap.get(namespacePrefix);
 	}
 
 
 	/**
 	 * @see XMPSchemaRegistry#getNamespaces()
 	 */
-	public synchronized Map<String, String> getNamespaces()
+	public Map<String, String> getNamespaces()
 	{
-		return Collections.unmodifiableMap(new TreeMap<String, String>(namespaceToPrefixMap));
+		return Collections.unmodifiableMap(
+			new TreeMap<String, String>(snapshot.namespaceToPrefixMap));
 	}
 	
 	
 	/**
 	 * @see XMPSchemaRegistry#getPrefixes()
 	 */
-	public synchronized Map<String, String> getPrefixes()
+	public Map<String, String> getPrefixes()
 	{
-		return Collections.unmodifiableMap(new TreeMap<String, String>(prefixToNamespaceMap));
+		return Collections.unmodifiableMap(
+			new TreeMap<String, String>(snapshot.prefixToNamespaceMap));
 	}
 	
 	
@@ -259,42 +265,44 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 	/**
 	 * @see XMPSchemaRegistry#resolveAlias(String, String)
 	 */
-	public synchronized XMPAliasInfo resolveAlias(String aliasNS, String aliasProp)
+	public XMPAliasInfo resolveAlias(String aliasNS, String aliasProp)
 	{
-		String aliasPrefix = getNamespacePrefix(aliasNS);
+		Snapshot current = snapshot;
+		String aliasPrefix = current.namespaceToPrefixMap.get(aliasNS);
 		if (aliasPrefix == null)
 		{	
 			return null;
 		}
 		
-		return (XMPAliasInfo) aliasMap.get(aliasPrefix + aliasProp);
+		return (XMPAliasInfo) current.aliasMap.get(aliasPrefix + aliasProp);
 	}
 
 
 	/**
 	 * @see XMPSchemaRegistry#findAlias(java.lang.String)
 	 */
-	public synchronized XMPAliasInfo findAlias(String qname)
+	public XMPAliasInfo findAlias(String qname)
 	{
-		return (XMPAliasInfo) aliasMap.get(qname);
+		return (XMPAliasInfo) snapshot.aliasMap.get(qname);
 	}
 
 	
 	/**
 	 * @see XMPSchemaRegistry#findAliases(String)
 	 */
-	public synchronized XMPAliasInfo[] findAliases(String aliasNS)
+	public XMPAliasInfo[] findAliases(String aliasNS)
 	{
-		String prefix = getNamespacePrefix(aliasNS);
+		Snapshot current = snapshot;
+		String prefix = current.namespaceToPrefixMap.get(aliasNS);
 		List<XMPAliasInfo> result = new ArrayList<XMPAliasInfo>(); 
 		if (prefix != null)
 		{
-			for (Iterator<String> it = aliasMap.keySet().iterator(); it.hasNext();)
+			for (Iterator<String> it = current.aliasMap.keySet().iterator(); it.hasNext();)
 			{
 				String qname = (String) it.next();
 				if (qname.startsWith(prefix))
 				{
-					result.add(findAlias(qname));
+					result.add(current.aliasMap.get(qname));
 				}
 			}
 			
@@ -375,11 +383,12 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 		String key = aliasPrefix + aliasProp;
 		
 		// check if alias is already existing
-		if (aliasMap.containsKey(key))
+		Snapshot current = snapshot;
+		if (current.aliasMap.containsKey(key))
 		{
 			throw new XMPException("Alias is already existing", XMPError.BADPARAM);
 		}
-		else if (aliasMap.containsKey(actualPrefix + actualProp))
+		else if (current.aliasMap.containsKey(actualPrefix + actualProp))
 		{	
 			throw new XMPException(
 					"Actual property is already an alias, use the base property",
@@ -427,16 +436,19 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 			}
 		};
 		
-		aliasMap.put(key, aliasInfo);
+		Snapshot next = new Snapshot(current);
+		next.aliasMap.put(key, aliasInfo);
+		snapshot = next;
+		XMPPathParser.invalidateCache();
 	}
 
 		
 	/**
 	 * @see XMPSchemaRegistry#getAliases()
 	 */
-	public synchronized Map<String, XMPAliasInfo> getAliases()
+	public Map<String, XMPAliasInfo> getAliases()
 	{
-		return Collections.unmodifiableMap(new TreeMap<String, XMPAliasInfo>(aliasMap));
+		return Collections.unmodifiableMap(new TreeMap<String, XMPAliasInfo>(snapshot.aliasMap));
 	}
 	
 	
@@ -496,4 +508,45 @@ public final class XMPSchemaRegistryImpl implements XMPSchemaRegistry, XMPConst
 		registerAlias(NS_PNG, "Software", NS_XMP, "CreatorTool", null);
 		registerAlias(NS_PNG, "Title", NS_DC, "title", aliasToArrayAltText);
 	}
+	
+	
+	/**
+	 * The registered namespaces and aliases. A published snapshot is never changed, 
+	 * the registration methods copy it, change the copy and replace the snapshot (copy-on-write),
+	 * so the lookups that run on every parse, serialize and path expansion don't have to lock.
+	 */
+	private static final class Snapshot
+	{
+		/** a map from a namespace URI to its registered prefix */
+		private final Map<String, String> namespaceToPrefixMap;
+		/** a map from a prefix to the associated namespace URI */
+		private final Map<String, String> prefixToNamespaceMap;
+		/** a map of all registered aliases. 
+		 *  The map is a relationship from a qname to an <code>XMPAliasInfo</code>-object. */
+		private final Map<String, XMPAliasInfo> aliasMap;
+		
+		
+		/**
+		 * Creates an empty snapshot.
+		 */
+		private Snapshot()
+		{
+			namespaceToPrefixMap = new HashMap<String, String>();
+			prefixToNamespaceMap = new HashMap<String, String>();
+			aliasMap = new HashMap<String, XMPAliasInfo>();
+		}
+		
+		
+		/**
+		 * Creates a copy of a snapshot that can be changed until it is published.
+		 * 
+		 * @param snapshot the current snapshot
+		 */
+		private Snapshot(Snapshot snapshot)
+		{
+			namespaceToPrefixMap = new HashMap<String, String>(snapshot.namespaceToPrefixMap);
+			prefixToNamespaceMap = new HashMap<String, String>(snapshot.prefixToNamespaceMap);
+			aliasMap = new HashMap<String, XMPAliasInfo>(snapshot.aliasMap);
+		}
+	}
 }
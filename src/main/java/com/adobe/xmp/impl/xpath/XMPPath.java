@@ -10,6 +10,7 @@
 package com.adobe.xmp.impl.xpath;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -56,6 +57,16 @@ public class XMPPath
 	{	
 		segments.add(segment);
 	}
+	
+	
+	/**
+	 * Makes the path read-only, once it is expanded it may be shared between threads. 
+	 * Adding a segment afterwards throws an <code>UnsupportedOperationException</code>.
+	 */
+	void freeze()
+	{
+		segments = Collections.unmodifiableList(segments);
+	}
 
 	
 	/**
@@ -0,0 +1,201 @@
+package com.adobe.xmp.impl.xpath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A bounded cache of expanded XMPPaths by schema namespace and path, shared by all threads.
+ * <p>
+ * The expansion depends on the schema registry (prefixes and aliases), so every entry is tagged 
+ * with the generation it was expanded in. {@link #invalidate()} starts a new generation and 
+ * entries of an older one are never returned, even if they are put after the invalidation.
+ * When the cache is full the least recently used quarter of the entries is evicted.
+ * 
+ * @since   16.10.2026
+ */
+final class XMPPathCache
+{
+	/** the maximum number of entries */
+	private final int maxSize;
+	/** the entries */
+	private final Map<Key, Entry> entries;
+	/** the current generation */
+	private final AtomicInteger generation = new AtomicInteger();
+	/** set while one thread evicts */
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	
+	
+	/**
+	 * @param maxSize the maximum number of entries
+	 */
+	XMPPathCache(int maxSize)
+	{
+		this.maxSize = maxSize;
+		this.entries = new ConcurrentHashMap<Key, Entry>(maxSize * 4 / 3 + 1);
+	}
+	
+	
+	/**
+	 * @return Returns the current generation, it has to be read <em>before</em> the path is 
+	 * 		expanded and passed to {@link #put(String, String, XMPPath, int)}.
+	 */
+	int getGeneration()
+	{
+		return generation.get();
+	}
+	
+	
+	/**
+	 * @param schemaNS the schema namespace
+	 * @param path the property path
+	 * @return Returns the expanded path or <code>null</code> if it is not cached.
+	 */
+	XMPPath get(String schemaNS, String path)
+	{
+		Entry entry = entries.get(new Key(schemaNS, path));
+		if (entry == null  ||  entry.generation != generation.get())
+		{
+			return null;
+		}
+		entry.lastUsed = System.nanoTime();
+		return entry.path;
+	}
+	
+	
+	/**
+	 * @param schemaNS the schema namespace
+	 * @param path the property path
+	 * @param xpath the expanded path (which is not modified afterwards)
+	 * @param generation the generation read before the path was expanded
+	 */
+	void put(String schemaNS, String path, XMPPath xpath, int generation)
+	{
+		if (generation != this.generation.get())
+		{
+			return;
+		}
+		entries.put(new Key(schemaNS, path), new Entry(xpath, generation));
+		if (entries.size() > maxSize  &&  evicting.compareAndSet(false, true))
+		{
+			try
+			{
+				evict();
+			}
+			finally
+			{
+				evicting.set(false);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Drops all entries, the ones that are put later but were expanded before are ignored.
+	 */
+	void invalidate()
+	{
+		generation.incrementAndGet();
+		entries.clear();
+	}
+	
+	
+	/**
+	 * Removes the least recently used quarter of the entries.
+	 */
+	private void evict()
+	{
+		List<Map.Entry<Key, Entry>> list = new ArrayList<Map.Entry<Key, Entry>>(entries.entrySet());
+		Collections.sort(list, new Comparator<Map.Entry<Key, Entry>>()
+		{
+			public int compare(Map.Entry<Key, Entry> e1, Map.Entry<Key, Entry> e2)
+			{
+				long t1 = e1.getValue().lastUsed;
+				long t2 = e2.getValue().lastUsed;
+				return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < list.size() - maxSize * 3 / 4; i++)
+		{
+			Map.Entry<Key, Entry> e = list.get(i);
+			entries.remove(e.getKey(), e.getValue());
+		}
+	}
+	
+	
+	/**
+	 * The cache key, a schema namespace and a path.
+	 */
+	private static final class Key
+	{
+		/** */
+		private final String schemaNS;
+		/** */
+		private final String path;
+		
+		
+		/**
+		 * @param schemaNS the schema namespace
+		 * @param path the property path
+		 */
+		private Key(String schemaNS, String path)
+		{
+			this.schemaNS = schemaNS;
+			this.path = path;
+		}
+		
+		
+		/**
+		 * @see Object#hashCode()
+		 */
+		public int hashCode()
+		{
+			return schemaNS.hashCode() * 31 + path.hashCode();
+		}
+		
+		
+		/**
+		 * @see Object#equals(Object)
+		 */
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+			{
+				return false;
+			}
+			Key other = (Key) obj;
+			return schemaNS.equals(other.schemaNS)  &&  path.equals(other.path);
+		}
+	}
+	
+	
+	/**
+	 * A cached path with its generation and the time it was last used.
+	 */
+	private static final class Entry
+	{
+		/** */
+		private final XMPPath path;
+		/** */
+		private final int generation;
+		/** not synchronized, an approximate time is good enough to find the old entries */
+		private long lastUsed = System.nanoTime();
+		
+		
+		/**
+		 * @param path the expanded path
+		 * @param generation the generation it was expanded in
+		 */
+		private Entry(XMPPath path, int generation)
+		{
+			this.path = path;
+			this.generation = generation;
+		}
+	}
+}
@@ -23,6 +23,12 @@ import com.adobe.xmp.properties.XMPAliasInfo;
  */
 public final class XMPPathParser
 {
+	/** the maximum number of expanded paths that are cached */
+	private static final int CACHE_SIZE = 1024;
+	/** the expanded paths, they depend on the schema registry (see {@link #invalidateCache()}) */
+	private static final XMPPathCache cache = new XMPPathCache(CACHE_SIZE);
+	
+	
 	/**
 	 * Private constructor
 	 */
@@ -72,6 +78,8 @@ public final class XMPPathParser
 	 * and contains letters, digits, '.', '-', '_', and a bunch of special
 	 * non-ASCII Unicode characters. An XML qualified name is a pair of names
 	 * separated by a colon.
+	 * <p>
+	 * Expanded paths are cached, the returned path is shared and must not be modified.
 	 * @param schemaNS
 	 *            schema namespace
 	 * @param path
@@ -88,6 +96,40 @@ public final class XMPPathParser
 			throw new XMPException("Parameter must not be null", XMPError.BADPARAM);
 		}
 
+		XMPPath expandedXPath = cache.get(schemaNS, path);
+		if (expandedXPath == null)
+		{
+			// read the generation first, so a path that is expanded 
+			// while the registry changes is not cached 
+			int generation = cache.getGeneration();
+			expandedXPath = parseXPath(schemaNS, path);
+			expandedXPath.freeze();
+			cache.put(schemaNS, path, expandedXPath, generation);
+		}
+		return expandedXPath;
+	}
+	
+	
+	/**
+	 * Drops the cached paths, has to be called when namespaces or aliases of 
+	 * the schema registry change.
+	 */
+	public static void invalidateCache()
+	{
+		cache.invalidate();
+	}
+
+
+	/**
+	 * Expands the path as described in {@link #expandXPath(String, String)}.
+	 * 
+	 * @param schemaNS schema namespace
+	 * @param path property name
+	 * @return Returns the expandet XMPPath.
+	 * @throws XMPException Thrown if the format is not correct somehow.
+	 */
+	private static XMPPath parseXPath(String schemaNS, String path) throws XMPException
+	{
 		XMPPath expandedXPath = new XMPPath();
 		PathPosition pos = new PathPosition();
 		pos.path = path;
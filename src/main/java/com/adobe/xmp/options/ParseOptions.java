@@ -34,6 +34,8 @@ public final class ParseOptions extends Options
 	/** Disallow DOCTYPE declarations to prevent entity expansion attacks.
 	 *  <em>Note:</em> Slight performance loss when set */
 	public static final int DISALLOW_DOCTYPE = 0x0040;
+	/** Parse via a W3C DOM instead of building the XMP tree straight from StAX events. */
+	public static final int USE_DOM = 0x0080;
 
 	
 	/**
@@ -145,6 +147,26 @@ public final class ParseOptions extends Options
 		return getOption(DISALLOW_DOCTYPE);
 	}
 	
+	
+	/**
+	 * @return Returns the option "use DOM".
+	 */
+	public boolean getUseDOM()
+	{
+		return getOption(USE_DOM);
+	}
+
+	
+	/**
+	 * @param value the value to set
+	 * @return Returns the instance to call more set-methods.
+	 */
+	public ParseOptions setUseDOM(boolean value)
+	{
+		setOption(USE_DOM, value);
+		return this;
+	}
+	
 	/**
 	 * @param value the value to set
 	 * @return Returns the instance to call more set-methods.
@@ -169,6 +191,7 @@ public final class ParseOptions extends Options
 			case ACCEPT_LATIN_1:		return "ACCEPT_LATIN_1";
 			case OMIT_NORMALIZATION:	return "OMIT_NORMALIZATION";
 			case DISALLOW_DOCTYPE:		return "DISALLOW_DOCTYPE";
+			case USE_DOM:				return "USE_DOM";
 			default: 					return null;
 		}
 	}
@@ -185,7 +208,8 @@ public final class ParseOptions extends Options
 			FIX_CONTROL_CHARS |
 			ACCEPT_LATIN_1 |
 			OMIT_NORMALIZATION |
-			DISALLOW_DOCTYPE;
+			DISALLOW_DOCTYPE |
+			USE_DOM;
 	}
 
 }
\ No newline at end of file
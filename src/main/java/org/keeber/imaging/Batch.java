@@ -0,0 +1,636 @@
+package org.keeber.imaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch processing engine: each job is read (to bytes), decoded and edited, then encoded and written
+ * - in three stages with their own pool sizes. The stages are joined by bounded queues so reading
+ * overlaps the CPU work, and a slow stage holds back the ones before it (rather than decoded images
+ * piling up in memory).
+ *
+ * <pre>
+ * Batch.Report report = new Batch().setWorkers(4).run(jobs);
+ * </pre>
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+public class Batch {
+  private int readers = 2, workers = Runtime.getRuntime().availableProcessors(), writers = 2, queueSize = 4;
+  private MemoryBudget budget = null;
+  private Mode mode = Mode.STAGED;
+  private int concurrency = 64;
+
+  /**
+   * How the jobs are run.
+   */
+  public enum Mode {
+    /**
+     * Fixed pools of reader, worker and writer threads joined by bounded queues.
+     */
+    STAGED,
+    /**
+     * Each job runs on its own lightweight thread (a virtual thread on Java 21+) that blocks freely on
+     * I/O - the decode, edit and encode go to a fixed pool of worker threads.
+     */
+    THREAD_PER_JOB
+  }
+
+  /**
+   * Opens the source of a job.
+   */
+  public interface Source {
+
+    InputStream open() throws IOException;
+
+  }
+
+  /**
+   * Opens the target of a job (it is closed after writing).
+   */
+  public interface Target {
+
+    OutputStream open() throws IOException;
+
+  }
+
+  /**
+   * The edits for a job, eg: <code>img.edit.longestSide(256)</code>.
+   */
+  public interface Edit {
+
+    Image apply(Image img) throws IOException;
+
+  }
+
+  /**
+   * A job: where to read from, what to do and where to write to.
+   *
+   * @author Jason Keeber <jason@keeber.org>
+   *
+   */
+  public static class Job {
+    private final Source source;
+    private final Target target;
+    private final Image.Type type;
+    private Image.Type sourceType;
+    private Edit edit;
+    private boolean flatten = false;
+
+    /**
+     * @param source
+     * @param target
+     * @param type to write
+     */
+    public Job(Source source, Target target, Image.Type type) {
+      this.source = source;
+      this.target = target;
+      this.type = type;
+    }
+
+    /**
+     * The type of the source - otherwise it is sniffed from the signature.
+     *
+     * @param sourceType
+     * @return
+     */
+    public Job sourceType(Image.Type sourceType) {
+      this.sourceType = sourceType;
+      return this;
+    }
+
+    public Job edit(Edit edit) {
+      this.edit = edit;
+      return this;
+    }
+
+    public Job flatten(boolean flatten) {
+      this.flatten = flatten;
+      return this;
+    }
+
+  }
+
+  /**
+   * The outcome of a single job.
+   *
+   * @author Jason Keeber <jason@keeber.org>
+   *
+   */
+  public static class Result {
+    private final Job job;
+    private long bytesIn, bytesOut, nanos;
+    private Throwable failure;
+
+    private Result(Job job) {
+      this.job = job;
+    }
+
+    public Job getJob() {
+      return job;
+    }
+
+    public boolean isSuccess() {
+      return failure == null;
+    }
+
+    /**
+     * The exception that failed the job (null on success).
+     *
+     * @return
+     */
+    public Throwable getFailure() {
+      return failure;
+    }
+
+    public long getBytesIn() {
+      return bytesIn;
+    }
+
+    public long getBytesOut() {
+      return bytesOut;
+    }
+
+    /**
+     * The time from the start of reading to the end of writing (including time spent queued).
+     *
+     * @return
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+  }
+
+  /**
+   * The results (in job order) and the aggregate throughput of a run.
+   *
+   * @author Jason Keeber <jason@keeber.org>
+   *
+   */
+  public static class Report {
+    private final List<Result> results;
+    private final long nanos;
+
+    private Report(List<Result> results, long nanos) {
+      this.results = Collections.unmodifiableList(results);
+      this.nanos = nanos;
+    }
+
+    public List<Result> getResults() {
+      return results;
+    }
+
+    public List<Result> getFailures() {
+      List<Result> failures = new ArrayList<Result>();
+      for (Result r : results) {
+        if (!r.isSuccess()) {
+          failures.add(r);
+        }
+      }
+      return failures;
+    }
+
+    public int getSucceeded() {
+      return results.size() - getFailures().size();
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    public long getBytesIn() {
+      long total = 0;
+      for (Result r : results) {
+        total += r.bytesIn;
+      }
+      return total;
+    }
+
+    public long getBytesOut() {
+      long total = 0;
+      for (Result r : results) {
+        total += r.bytesOut;
+      }
+      return total;
+    }
+
+    /**
+     * Jobs completed per second (wall clock).
+     *
+     * @return
+     */
+    public double getJobsPerSecond() {
+      return nanos == 0 ? 0 : results.size() / (nanos / 1e9);
+    }
+
+    /**
+     * Source megabytes read per second (wall clock).
+     *
+     * @return
+     */
+    public double getMegabytesPerSecond() {
+      return nanos == 0 ? 0 : getBytesIn() / (1024d * 1024d) / (nanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Batch[%d jobs, %d failed, %.1f ms, %.2f jobs/s, %.2f MB/s]", results.size(), results.size() - getSucceeded(), nanos / 1e6, getJobsPerSecond(), getMegabytesPerSecond());
+    }
+
+  }
+
+  /**
+   * A job on its way through the stages.
+   */
+  private static class Item {
+    private final Result result;
+    private final long start = System.nanoTime();
+    private byte[] bytes;
+    private Image img;
+    private long reserved = 0;
+
+    private Item(Job job) {
+      this.result = new Result(job);
+    }
+
+  }
+
+  public int getReaders() {
+    return readers;
+  }
+
+  /**
+   * The number of threads reading sources into memory.
+   *
+   * @param readers
+   * @return
+   */
+  public Batch setReaders(int readers) {
+    if (readers < 1) {
+      throw new IllegalArgumentException("Readers (" + readers + ") must be > 0.");
+    }
+    this.readers = readers;
+    return this;
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * The number of threads decoding and editing (defaults to the number of processors).
+   *
+   * @param workers
+   * @return
+   */
+  public Batch setWorkers(int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Workers (" + workers + ") must be > 0.");
+    }
+    this.workers = workers;
+    return this;
+  }
+
+  public int getWriters() {
+    return writers;
+  }
+
+  /**
+   * The number of threads encoding and writing.
+   *
+   * @param writers
+   * @return
+   */
+  public Batch setWriters(int writers) {
+    if (writers < 1) {
+      throw new IllegalArgumentException("Writers (" + writers + ") must be > 0.");
+    }
+    this.writers = writers;
+    return this;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * How the jobs are run (defaults to {@link Mode#STAGED}).
+   *
+   * @param mode
+   * @return
+   */
+  public Batch setMode(Mode mode) {
+    this.mode = mode;
+    return this;
+  }
+
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * The number of jobs in flight at once in {@link Mode#THREAD_PER_JOB} mode (the readers, writers
+   * and queue size only apply to {@link Mode#STAGED}).
+   *
+   * @param concurrency
+   * @return
+   */
+  public Batch setConcurrency(int concurrency) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("Concurrency (" + concurrency + ") must be > 0.");
+    }
+    this.concurrency = concurrency;
+    return this;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * The number of items that can wait between two stages.
+   *
+   * @param queueSize
+   * @return
+   */
+  public Batch setQueueSize(int queueSize) {
+    if (queueSize < 1) {
+      throw new IllegalArgumentException("Queue size (" + queueSize + ") must be > 0.");
+    }
+    this.queueSize = queueSize;
+    return this;
+  }
+
+  public MemoryBudget getMemoryBudget() {
+    return budget;
+  }
+
+  /**
+   * A heap budget the decode stage reserves each image's predicted size from (read from its header)
+   * before decoding - the reservation is released once the image has been written. Without one every
+   * worker decodes as soon as it can.
+   *
+   * @param budget
+   * @return
+   */
+  public Batch setMemoryBudget(MemoryBudget budget) {
+    this.budget = budget;
+    return this;
+  }
+
+  public Report run(Job... jobs) throws InterruptedException {
+    return run(Arrays.asList(jobs));
+  }
+
+  /**
+   * Runs the jobs (see {@link Mode}) and waits for them all to finish. A failed job does not stop
+   * the others.
+   *
+   * @param jobs
+   * @return the report
+   * @throws InterruptedException
+   */
+  public Report run(List<Job> jobs) throws InterruptedException {
+    List<Result> results = new ArrayList<Result>(jobs.size());
+    for (int i = 0; i < jobs.size(); i++) {
+      results.add(null);
+    }
+    long start = System.nanoTime();
+    if (mode == Mode.THREAD_PER_JOB) {
+      threadPerJob(jobs, results);
+    } else {
+      staged(jobs, results);
+    }
+    return new Report(results, System.nanoTime() - start);
+  }
+
+  private void staged(final List<Job> jobs, final List<Result> results) throws InterruptedException {
+    final int total = jobs.size();
+    final BlockingQueue<Item> read = new ArrayBlockingQueue<Item>(queueSize), decoded = new ArrayBlockingQueue<Item>(queueSize);
+    final AtomicInteger next = new AtomicInteger(), decoding = new AtomicInteger(), writing = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(readers + workers + writers);
+    try {
+      for (int i = 0; i < readers; i++) {
+        pool.execute(new Stage() {
+          void stage() throws InterruptedException {
+            for (int n; (n = next.getAndIncrement()) < total;) {
+              Item item = new Item(jobs.get(n));
+              results.set(n, item.result);
+              try {
+                item.bytes = bytes(item.result.job.source);
+                item.result.bytesIn = item.bytes.length;
+              } catch (Throwable t) {
+                item.result.failure = t;
+              }
+              read.put(item);
+            }
+          }
+        });
+      }
+      for (int i = 0; i < workers; i++) {
+        pool.execute(new Stage() {
+          void stage() throws InterruptedException {
+            while (decoding.getAndIncrement() < total) {
+              Item item = read.take();
+              if (item.result.failure == null) {
+                try {
+                  reserve(item);
+                  decode(item);
+                } catch (InterruptedException e) {
+                  throw e;
+                } catch (Throwable t) {
+                  item.result.failure = t;
+                }
+              }
+              item.bytes = null;
+              decoded.put(item);
+            }
+          }
+        });
+      }
+      for (int i = 0; i < writers; i++) {
+        pool.execute(new Stage() {
+          void stage() throws InterruptedException {
+            while (writing.getAndIncrement() < total) {
+              Item item = decoded.take();
+              if (item.result.failure == null) {
+                try {
+                  Job job = item.result.job;
+                  OutputStream os = job.target.open();
+                  try {
+                    item.result.bytesOut = item.img.write.to(os, job.type, job.flatten);
+                  } finally {
+                    os.close();
+                  }
+                } catch (Throwable t) {
+                  item.result.failure = t;
+                }
+              }
+              item.img = null;
+              if (budget != null) {
+                budget.release(item.reserved);
+              }
+              item.result.nanos = System.nanoTime() - item.start;
+            }
+          }
+        });
+      }
+      pool.shutdown();
+      while (!pool.awaitTermination(1, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private void threadPerJob(final List<Job> jobs, final List<Result> results) throws InterruptedException {
+    final ExecutorService cpu = Executors.newFixedThreadPool(workers);
+    ExecutorService io = lightweight();
+    final Semaphore inFlight = new Semaphore(concurrency);
+    try {
+      for (int i = 0; i < jobs.size(); i++) {
+        final Item item = new Item(jobs.get(i));
+        results.set(i, item.result);
+        inFlight.acquire();
+        io.execute(new Runnable() {
+          public void run() {
+            try {
+              job(item, cpu);
+            } catch (Throwable t) {
+              item.result.failure = t;
+            } finally {
+              item.result.nanos = System.nanoTime() - item.start;
+              inFlight.release();
+            }
+          }
+        });
+      }
+      io.shutdown();
+      while (!io.awaitTermination(1, TimeUnit.SECONDS));
+    } finally {
+      io.shutdownNow();
+      cpu.shutdownNow();
+    }
+  }
+
+  /**
+   * A whole job on its own (I/O) thread - only the decode, edit and encode are handed to the CPU
+   * pool.
+   */
+  private void job(final Item item, ExecutorService cpu) throws Exception {
+    final Job job = item.result.job;
+    item.bytes = bytes(job.source);
+    item.result.bytesIn = item.bytes.length;
+    reserve(item);
+    byte[] encoded;
+    try {
+      Future<byte[]> f = cpu.submit(new Callable<byte[]>() {
+        public byte[] call() throws Exception {
+          decode(item);
+          item.bytes = null;
+          ByteArrayOutputStream bos = new ByteArrayOutputStream();
+          item.img.write.to(bos, job.type, job.flatten);
+          item.img = null;
+          return bos.toByteArray();
+        }
+      });
+      try {
+        encoded = f.get();
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+    } finally {
+      if (budget != null) {
+        budget.release(item.reserved);
+      }
+    }
+    OutputStream os = job.target.open();
+    try {
+      os.write(encoded);
+    } finally {
+      os.close();
+    }
+    item.result.bytesOut = encoded.length;
+  }
+
+  /**
+   * A virtual thread per task executor when the JVM has them (21+) - otherwise a cached pool.
+   */
+  private static ExecutorService lightweight() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (Exception e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  private void reserve(Item item) throws IOException, InterruptedException {
+    if (budget != null) {
+      Job job = item.result.job;
+      InputStream is = new ByteArrayInputStream(item.bytes);
+      item.reserved = budget.acquire(job.sourceType == null ? Image.read.probe(is) : Image.read.probe(is, job.sourceType));
+    }
+  }
+
+  private void decode(Item item) throws IOException {
+    Job job = item.result.job;
+    InputStream is = new ByteArrayInputStream(item.bytes);
+    item.img = job.sourceType == null ? Image.read.from(is) : Image.read.from(is, job.sourceType);
+    if (job.edit != null) {
+      item.img = job.edit.apply(item.img);
+    }
+  }
+
+  private static byte[] bytes(Source source) throws IOException {
+    InputStream is = source.open();
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024 * 8];
+      int len;
+      while ((len = is.read(buffer)) > 0) {
+        bos.write(buffer, 0, len);
+      }
+      return bos.toByteArray();
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * A stage thread - failures (including errors such as running out of memory) are recorded against
+   * the item so every stage still sees every item.
+   */
+  private static abstract class Stage implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        stage();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    abstract void stage() throws InterruptedException;
+
+  }
+
+}
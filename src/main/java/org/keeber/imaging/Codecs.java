@@ -0,0 +1,95 @@
+package org.keeber.imaging;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+
+/**
+ * A bounded pool of ImageIO readers and writers per image type - so the service registry lookup and
+ * codec construction only happen once. Codecs are leased and returned (reset) after use; one that
+ * does not fit back in the pool is disposed.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+class Codecs {
+  private static final int MAX_POOLED = Math.max(2, Runtime.getRuntime().availableProcessors());
+  // The TIFF metadata handling is written against the JAI plugin (newer JDKs bundle their own).
+  private static final String PREFERRED_PLUGINS = "com.github.jaiimageio.";
+  private static final Map<Image.Type, BlockingQueue<ImageReader>> READERS = new EnumMap<Image.Type, BlockingQueue<ImageReader>>(Image.Type.class);
+  private static final Map<Image.Type, BlockingQueue<ImageWriter>> WRITERS = new EnumMap<Image.Type, BlockingQueue<ImageWriter>>(Image.Type.class);
+
+  static {
+    for (Image.Type type : Image.Type.values()) {
+      READERS.put(type, new ArrayBlockingQueue<ImageReader>(MAX_POOLED));
+      WRITERS.put(type, new ArrayBlockingQueue<ImageWriter>(MAX_POOLED));
+    }
+  }
+
+  /**
+   * Leases a reader for the type - return it with {@link #release(Image.Type, ImageReader)}.
+   * 
+   * @param type
+   * @return
+   */
+  static ImageReader reader(Image.Type type) {
+    ImageReader reader = READERS.get(type).poll();
+    return reader == null ? preferred(ImageIO.getImageReadersByFormatName(type.getFormat())) : reader;
+  }
+
+  /**
+   * Resets the reader and returns it to the pool (or disposes of it if the pool is full).
+   * 
+   * @param type
+   * @param reader
+   */
+  static void release(Image.Type type, ImageReader reader) {
+    reader.reset();
+    if (!READERS.get(type).offer(reader)) {
+      reader.dispose();
+    }
+  }
+
+  /**
+   * Leases a writer for the type - return it with {@link #release(Image.Type, ImageWriter)}.
+   * 
+   * @param type
+   * @return
+   */
+  static ImageWriter writer(Image.Type type) {
+    ImageWriter writer = WRITERS.get(type).poll();
+    return writer == null ? preferred(ImageIO.getImageWritersByFormatName(type.getFormat())) : writer;
+  }
+
+  /**
+   * Resets the writer and returns it to the pool (or disposes of it if the pool is full).
+   * 
+   * @param type
+   * @param writer
+   */
+  static void release(Image.Type type, ImageWriter writer) {
+    writer.reset();
+    if (!WRITERS.get(type).offer(writer)) {
+      writer.dispose();
+    }
+  }
+
+  private static <T> T preferred(Iterator<T> codecs) {
+    T first = codecs.next();
+    for (T codec = first;; codec = codecs.next()) {
+      if (codec.getClass().getName().startsWith(PREFERRED_PLUGINS)) {
+        return codec;
+      }
+      if (!codecs.hasNext()) {
+        return first;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,142 @@
+package org.keeber.imaging;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records a log-bucketed histogram of durations (within ~6%) and totals of bytes and pixels per
+ * stage - lock free so it can be shared by every thread.
+ *
+ * <pre>
+ * HistogramMetrics metrics = new HistogramMetrics();
+ * Image.setMetrics(metrics);
+ * ...
+ * System.out.println(metrics);
+ * </pre>
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+public class HistogramMetrics implements Metrics {
+  // 16 sub buckets for each power of two.
+  private static final int SUB_BITS = 4, SUB_BUCKETS = 1 << SUB_BITS, BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+  private final Map<Stage, Histogram> histograms = new EnumMap<Stage, Histogram>(Stage.class);
+
+  public HistogramMetrics() {
+    for (Stage stage : Stage.values()) {
+      histograms.put(stage, new Histogram());
+    }
+  }
+
+  @Override
+  public void record(Stage stage, Image.Type type, long nanos, long bytesIn, long bytesOut, long pixels) {
+    Histogram h = histograms.get(stage);
+    h.counts.incrementAndGet(bucket(Math.max(0, nanos)));
+    h.count.incrementAndGet();
+    h.nanos.addAndGet(nanos);
+    h.bytesIn.addAndGet(bytesIn);
+    h.bytesOut.addAndGet(bytesOut);
+    h.pixels.addAndGet(pixels);
+  }
+
+  public long getCount(Stage stage) {
+    return histograms.get(stage).count.get();
+  }
+
+  /**
+   * The duration at a percentile for the stage.
+   *
+   * @param stage
+   * @param percentile eg: 50 or 99
+   * @return in nanos (0 if nothing was recorded)
+   */
+  public long getPercentile(Stage stage, double percentile) {
+    Histogram h = histograms.get(stage);
+    long count = h.count.get();
+    if (count == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += h.counts.get(i);
+      if (seen >= target) {
+        return value(i);
+      }
+    }
+    return value(BUCKETS - 1);
+  }
+
+  public long getTotalNanos(Stage stage) {
+    return histograms.get(stage).nanos.get();
+  }
+
+  public long getBytesIn(Stage stage) {
+    return histograms.get(stage).bytesIn.get();
+  }
+
+  public long getBytesOut(Stage stage) {
+    return histograms.get(stage).bytesOut.get();
+  }
+
+  public long getPixels(Stage stage) {
+    return histograms.get(stage).pixels.get();
+  }
+
+  /**
+   * Clears everything recorded so far.
+   */
+  public void reset() {
+    for (Histogram h : histograms.values()) {
+      for (int i = 0; i < BUCKETS; i++) {
+        h.counts.set(i, 0);
+      }
+      h.count.set(0);
+      h.nanos.set(0);
+      h.bytesIn.set(0);
+      h.bytesOut.set(0);
+      h.pixels.set(0);
+    }
+  }
+
+  /**
+   * A line per recorded stage with the count, p50, p99 and total time.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Stage stage : Stage.values()) {
+      if (getCount(stage) > 0) {
+        sb.append(String.format("%-13s n=%d p50=%.3fms p99=%.3fms total=%.1fms%n", stage, getCount(stage), getPercentile(stage, 50) / 1e6, getPercentile(stage, 99) / 1e6, getTotalNanos(stage) / 1e6));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static int bucket(long v) {
+    if (v < SUB_BUCKETS) {
+      return (int) v;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(v);
+    return (exp - SUB_BITS + 1) * SUB_BUCKETS + (int) ((v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * The middle of the bucket.
+   */
+  private static long value(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    return ((long) (SUB_BUCKETS + (bucket % SUB_BUCKETS)) << shift) + ((1L << shift) >> 1);
+  }
+
+  private static class Histogram {
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(), nanos = new AtomicLong(), bytesIn = new AtomicLong(), bytesOut = new AtomicLong(), pixels = new AtomicLong();
+  }
+
+}
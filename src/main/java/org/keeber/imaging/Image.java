@@ -2,19 +2,29 @@ package org.keeber.imaging;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.color.ICC_Profile;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
@@ -22,6 +32,9 @@ import javax.imageio.ImageWriter;
 import javax.imageio.metadata.IIOInvalidTreeException;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -46,9 +59,15 @@ public class Image {
   private BufferedImage raster;
   private Image.Type type;
   private XMPMeta xmp;
+  // The packet as read - only parsed when the XMP is first asked for (written as is until then).
+  private byte[] xmpPacket;
   private int res = 0;
   private Color background = Color.WHITE;
   private ICC_Profile profile = null;
+  private long spillThreshold = Constants.SPILL_THRESHOLD;
+  private ForkJoinPool resizePool = ForkJoinPool.commonPool();
+  private int resizeStrip = Constants.RESIZE_STRIP;
+  private static volatile Metrics metrics = Metrics.NONE;
 
   private Image(BufferedImage raster, IIOMetadata metadata, Type type) {
     this.raster = raster;
@@ -75,21 +94,29 @@ public class Image {
    * Creates a copy of this image that can be manipulated without changing the original.
    */
   public Image clone() {
-    return new Image(this.raster.getSubimage(0, 0, this.raster.getWidth(), this.raster.getHeight()), null, this.type).setProfile(profile).setXMP(xmp).setRes(this.res).setBackground(this.background);
+    Image clone = new Image(this.raster.getSubimage(0, 0, this.raster.getWidth(), this.raster.getHeight()), null, this.type).setProfile(profile).setXMP(xmp).setRes(this.res).setBackground(this.background).setSpillThreshold(this.spillThreshold).setResizePool(this.resizePool).setResizeStrip(this.resizeStrip);
+    clone.xmpPacket = xmpPacket;
+    return clone;
   }
 
   /**
    * Returns the Adobe XMP Object from the initial image read (if any) - unless the
-   * {@see #clearXMP()} method has been called.
+   * {@see #clearXMP()} method has been called. The packet is parsed on the first call, until then
+   * writes embed it as read.
    * 
    * @return Adobe XMP Object
    */
   public XMPMeta getXMP() {
+    if (xmp == null) {
+      xmp = Header.xmp(xmpPacket, type);
+      xmpPacket = null;
+    }
     return xmp;
   }
 
   public Image setXMP(XMPMeta xmp) {
     this.xmp = xmp;
+    this.xmpPacket = null;
     return this;
   }
 
@@ -101,6 +128,7 @@ public class Image {
    */
   public XMPMeta clearXMP() {
     xmp = XMPMetaFactory.create();
+    xmpPacket = null;
     return xmp;
   }
 
@@ -111,7 +139,7 @@ public class Image {
    */
   public String printXMP() {
     try {
-      return XMPMetaFactory.serializeToString(xmp, null);
+      return XMPMetaFactory.serializeToString(getXMP(), null);
     } catch (XMPException e) {
       return "Error serializing XMP [" + e.getLocalizedMessage() + "].";
     }
@@ -133,6 +161,7 @@ public class Image {
    * @return
    */
   public Image normalize(boolean removeAlpha) {
+    long start = System.nanoTime();
     BufferedImage tmp = new BufferedImage(raster.getWidth(), raster.getHeight(), removeAlpha || !raster.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
     Graphics2D g = tmp.createGraphics();
     g.setBackground(Constants.TRANSPARENT);
@@ -140,6 +169,7 @@ public class Image {
     g.drawImage(raster, 0, 0, removeAlpha || !raster.getColorModel().hasAlpha() ? background : Constants.TRANSPARENT, null);
     g.dispose();
     this.raster = tmp;
+    metrics.record(Metrics.Stage.NORMALIZE, type, System.nanoTime() - start, 0, 0, (long) tmp.getWidth() * tmp.getHeight());
     return this;
   }
 
@@ -150,7 +180,15 @@ public class Image {
    * @return
    */
   private Image edit(Image.EditParams edits) {
-    BufferedImage tmp = new BufferedImage(edits.canvasWidth, edits.canvasHeight, edits.flatten || !raster.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    this.raster = render(raster, edits);
+    return this;
+  }
+
+  /**
+   * Renders the edit from a source raster (the image itself, or a reduced copy of it).
+   */
+  private BufferedImage render(BufferedImage source, Image.EditParams edits) {
+    BufferedImage tmp = new BufferedImage(edits.canvasWidth, edits.canvasHeight, edits.flatten || !source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
     Graphics2D g = tmp.createGraphics();
     g.setBackground(background);
     if (edits.flatten || tmp.getType() == BufferedImage.TYPE_INT_RGB) {
@@ -159,10 +197,109 @@ public class Image {
       g.setBackground(Constants.TRANSPARENT);
       g.clearRect(0, 0, tmp.getWidth(), tmp.getHeight());
     }
-    g.drawImage(raster.getScaledInstance(edits.imageWidth, edits.imageHeight, java.awt.Image.SCALE_SMOOTH), edits.offsetX, edits.offsetY, edits.imageWidth, edits.imageHeight, Constants.TRANSPARENT, null);
+    long start = System.nanoTime();
+    BufferedImage resized = resized(source, edits);
+    metrics.record(Metrics.Stage.RESAMPLE, type, System.nanoTime() - start, 0, 0, (long) edits.imageWidth * edits.imageHeight);
+    g.drawImage(resized, edits.offsetX, edits.offsetY, Constants.TRANSPARENT, null);
     g.dispose();
-    this.raster = tmp;
-    return this;
+    return tmp;
+  }
+
+  private BufferedImage resized(BufferedImage source, Image.EditParams edits) {
+    if (edits.progressive) {
+      return Resampler.progressive(source, edits.imageWidth, edits.imageHeight, edits.filter, resizePool, resizeStrip);
+    }
+    return Resampler.resize(source, edits.imageWidth, edits.imageHeight, edits.filter, resizePool, resizeStrip);
+  }
+
+  /**
+   * Writes several renditions (sizes and types) of this image from a single decode - without
+   * changing this image. Each rendition is resized from the nearest larger level of a halving
+   * pyramid, the XMP is serialized once and the renditions are encoded concurrently on the
+   * {@link #getResizePool()} (one after the other if there is no pool). Every rendition's stream is
+   * closed afterwards - also when a rendition fails.
+   * 
+   * @param renditions
+   * @return the number of bytes written for each rendition
+   * @throws IOException
+   */
+  public long[] renditions(Image.Rendition... renditions) throws IOException {
+    final byte[] xmpBytes = write.packet();
+    // The edits - sized against this image.
+    final EditParams[] edits = new EditParams[renditions.length];
+    int minWidth = raster.getWidth(), minHeight = raster.getHeight();
+    for (int i = 0; i < renditions.length; i++) {
+      Rendition r = renditions[i];
+      edits[i] = (r.longestSide > 0 ? new EditParams().longestSide(r.longestSide) : new EditParams().place(r.canvasWidth, r.canvasHeight)).filter(r.filter);
+      minWidth = Math.max(1, Math.min(minWidth, edits[i].imageWidth));
+      minHeight = Math.max(1, Math.min(minHeight, edits[i].imageHeight));
+    }
+    // The pyramid - down to the level the smallest rendition needs.
+    List<BufferedImage> levels = new ArrayList<BufferedImage>();
+    levels.add(Resampler.packed(raster));
+    for (BufferedImage level = levels.get(0); level.getWidth() / 2 >= minWidth && level.getHeight() / 2 >= minHeight;) {
+      levels.add(level = Resampler.halve(level, resizePool, resizeStrip));
+    }
+    List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+    for (int i = 0; i < renditions.length; i++) {
+      final Rendition r = renditions[i];
+      final EditParams e = edits[i];
+      BufferedImage nearest = levels.get(0);
+      for (BufferedImage level : levels) {
+        if (level.getWidth() >= e.imageWidth && level.getHeight() >= e.imageHeight) {
+          nearest = level;
+        }
+      }
+      final BufferedImage source = nearest;
+      tasks.add(new Callable<Long>() {
+        public Long call() throws IOException {
+          return write.to(render(source, e), r.os, r.type, xmpBytes, r.flatten);
+        }
+      });
+    }
+    long[] written = new long[renditions.length];
+    boolean done = false;
+    try {
+      if (resizePool == null) {
+        for (int i = 0; i < tasks.size(); i++) {
+          try {
+            written[i] = tasks.get(i).call();
+          } catch (IOException e) {
+            throw e;
+          } catch (Exception e) {
+            throw new IOException("Failed to write rendition[" + e.getLocalizedMessage() + "].", e);
+          }
+        }
+      } else {
+        List<Future<Long>> futures = resizePool.invokeAll(tasks);
+        for (int i = 0; i < futures.size(); i++) {
+          try {
+            written[i] = futures.get(i).get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing renditions.", e);
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+              throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to write rendition[" + e.getCause().getLocalizedMessage() + "].", e.getCause());
+          }
+        }
+      }
+      done = true;
+    } finally {
+      if (!done) {
+        // A failed (or skipped) rendition never got to close its stream - closing twice is harmless.
+        for (Rendition r : renditions) {
+          try {
+            r.os.close();
+          } catch (IOException e) {
+            // Keep the original failure.
+          }
+        }
+      }
+    }
+    return written;
   }
 
   /**
@@ -208,6 +345,89 @@ public class Image {
     return this;
   }
 
+  /**
+   * The number of bytes an encoder can hold in memory (while it waits to seek back) before the
+   * write spills to a temp file.
+   * 
+   * @return
+   */
+  public long getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  /**
+   * The number of bytes an encoder can hold in memory before the write spills to a temp file. A
+   * threshold of 0 always writes through a temp file and anything over 2GB is capped at 2GB (the
+   * largest in memory cache).
+   * 
+   * @param spillThreshold in bytes
+   * @return
+   */
+  public Image setSpillThreshold(long spillThreshold) {
+    this.spillThreshold = spillThreshold;
+    return this;
+  }
+
+  /**
+   * The pool large images are resized on (defaults to the common pool).
+   * 
+   * @return
+   */
+  public ForkJoinPool getResizePool() {
+    return resizePool;
+  }
+
+  /**
+   * The pool large images are resized on - null to always resize on the calling thread.
+   * 
+   * @param resizePool
+   * @return
+   */
+  public Image setResizePool(ForkJoinPool resizePool) {
+    this.resizePool = resizePool;
+    return this;
+  }
+
+  /**
+   * The number of rows in each parallel resize task.
+   * 
+   * @return
+   */
+  public int getResizeStrip() {
+    return resizeStrip;
+  }
+
+  /**
+   * The number of rows in each parallel resize task - 0 to always resize on the calling thread. The
+   * result is the same however the work is split.
+   * 
+   * @param resizeStrip in rows
+   * @return
+   */
+  public Image setResizeStrip(int resizeStrip) {
+    this.resizeStrip = resizeStrip;
+    return this;
+  }
+
+  /**
+   * The metrics every image reports its stages to.
+   * 
+   * @return
+   */
+  public static Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Installs the metrics every image reports its stages to (decode, metadata, XMP, resample, encode
+   * etc...) - null for none.
+   * 
+   * @param metrics eg: a {@link HistogramMetrics}
+   */
+  public static void setMetrics(Metrics metrics) {
+    Image.metrics = metrics == null ? Metrics.NONE : metrics;
+  }
+
   private static class Constants {
     public static Color TRANSPARENT = new Color(0x00ffffff, true);
     public static final String XMP_PACKET_START = "<?xpacket begin";
@@ -216,90 +436,137 @@ public class Image {
     private static SerializeOptions SERIALIZE_OPTIONS = new SerializeOptions().setUseCompactFormat(true);
     private static BaselineTIFFTagSet BASE = BaselineTIFFTagSet.getInstance();
     private static String PNG_KEYWORD = "XML:com.adobe.xmp";
+    private static long SPILL_THRESHOLD = 1024 * 1024 * 64;
+    private static int RESIZE_STRIP = 64;
   }
 
   /**
    * Broke out here in case we add a second constructor;
    */
   private void init(IIOMetadata metadata) {
-    String xmpData = null;
-    if (metadata != null) {
-      if (type == Image.Type.JPG) {
-        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(type.id);
-        IIOMetadataNode markerSequence = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
-        NodeList nodes = markerSequence.getElementsByTagName("unknown");
-        for (int i = 0; i < nodes.getLength(); i++) {
-          if (((IIOMetadataNode) nodes.item(i)).getAttribute("MarkerTag").matches("APP1|225")) {
-            byte[] b = (byte[]) ((IIOMetadataNode) nodes.item(i)).getUserObject();
-            xmpData = new String(b, Constants.XMP_HEADER_SIZE, b.length - Constants.XMP_HEADER_SIZE);
-          }
-          if (((IIOMetadataNode) nodes.item(i)).getAttribute("MarkerTag").matches("APP2|226")) {
-            byte[] b = (byte[]) ((IIOMetadataNode) nodes.item(i)).getUserObject();
-            b = Arrays.copyOfRange(b, Constants.ICC_HEADER_SIZE, b.length);
-            profile = ICC_Profile.getInstance(b);
-          }
-        }
-      }
-      if (type == Image.Type.PNG) {
-        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(type.id);
-        NodeList nodes = root.getElementsByTagName("iTXtEntry");
-        for (int i = 0; i < nodes.getLength(); i++) {
-          if (((IIOMetadataNode) nodes.item(i)).getAttribute("keyword").equals(Constants.PNG_KEYWORD)) {
-            xmpData = ((IIOMetadataNode) nodes.item(i)).getAttribute("text");
+    Header header = new Header(metadata, type);
+    this.xmpPacket = header.xmpPacket;
+    this.res = header.res;
+    this.profile = header.profile;
+  }
+
+  /**
+   * Parses a packet as read (an empty XMP object if there is none or it can't be parsed) - for the
+   * lazy {@link ImageInfo#getXMP()}.
+   */
+  static XMPMeta xmp(byte[] xmpPacket, Image.Type type) {
+    return Header.xmp(xmpPacket, type);
+  }
+
+  /**
+   * The resolution, ICC profile and XMP packet read from the image metadata - shared by the read and
+   * probe methods.
+   */
+  private static class Header {
+    private byte[] xmpPacket;
+    private int res = 0;
+    private ICC_Profile profile = null;
+
+    private Header(IIOMetadata metadata, Image.Type type) {
+      long start = System.nanoTime();
+      if (metadata != null) {
+        if (type == Image.Type.JPG) {
+          IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(type.id);
+          IIOMetadataNode markerSequence = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+          NodeList nodes = markerSequence.getElementsByTagName("unknown");
+          for (int i = 0; i < nodes.getLength(); i++) {
+            if (((IIOMetadataNode) nodes.item(i)).getAttribute("MarkerTag").matches("APP1|225")) {
+              byte[] b = (byte[]) ((IIOMetadataNode) nodes.item(i)).getUserObject();
+              xmpPacket = Arrays.copyOfRange(b, Constants.XMP_HEADER_SIZE, b.length);
+            }
+            if (((IIOMetadataNode) nodes.item(i)).getAttribute("MarkerTag").matches("APP2|226")) {
+              byte[] b = (byte[]) ((IIOMetadataNode) nodes.item(i)).getUserObject();
+              b = Arrays.copyOfRange(b, Constants.ICC_HEADER_SIZE, b.length);
+              profile = ICC_Profile.getInstance(b);
+            }
           }
         }
-        nodes = root.getElementsByTagName("pHYs");
-        if (nodes.getLength() == 1) {
-          IIOMetadataNode r = (IIOMetadataNode) nodes.item(0);
-          if (r.getAttribute("unitSpecifier").equals("meter")) {
-            res = Math.round(Integer.parseInt(r.getAttribute("pixelsPerUnitXAxis")) * 0.0254f);
+        if (type == Image.Type.PNG) {
+          IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(type.id);
+          NodeList nodes = root.getElementsByTagName("iTXtEntry");
+          for (int i = 0; i < nodes.getLength(); i++) {
+            if (((IIOMetadataNode) nodes.item(i)).getAttribute("keyword").equals(Constants.PNG_KEYWORD)) {
+              xmpPacket = ((IIOMetadataNode) nodes.item(i)).getAttribute("text").getBytes(StandardCharsets.UTF_8);
+            }
           }
-        }
-        if (res == 0) {
-          root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_1.0");
-          nodes = root.getElementsByTagName("HorizontalPixelSize");
+          nodes = root.getElementsByTagName("pHYs");
           if (nodes.getLength() == 1) {
             IIOMetadataNode r = (IIOMetadataNode) nodes.item(0);
-            res = (int) Math.round(25.4 * Float.parseFloat(r.getAttribute("value")));
-          }
-        }
-      }
-      if (type == Image.Type.TIF || type == Image.Type.JPG) {
-        try {
-          TIFFDirectory t = TIFFDirectory.createFromMetadata(metadata);
-          if (t.containsTIFFField(700)) {
-            xmpData = new String(t.getTIFFField(700).getAsBytes());
-          }
-          // Resolution
-          if (t.containsTIFFField(BaselineTIFFTagSet.TAG_X_RESOLUTION)) {
-            long[] r = t.getTIFFField(BaselineTIFFTagSet.TAG_X_RESOLUTION).getAsRational(0);
-            res = Math.floorDiv((int) r[0], (int) r[1]);
-            if (t.containsTIFFField(BaselineTIFFTagSet.TAG_RESOLUTION_UNIT) && t.getTIFFField(BaselineTIFFTagSet.TAG_RESOLUTION_UNIT).getAsChars()[0] == 3) {
-              res = Math.round(res * 2.54f);
+            if (r.getAttribute("unitSpecifier").equals("meter")) {
+              res = Math.round(Integer.parseInt(r.getAttribute("pixelsPerUnitXAxis")) * 0.0254f);
             }
           }
-          // ICC Profile
-          if (t.containsTIFFField(BaselineTIFFTagSet.TAG_ICC_PROFILE)) {
-            profile = ICC_Profile.getInstance(t.getTIFFField(BaselineTIFFTagSet.TAG_ICC_PROFILE).getAsBytes());
+          if (res == 0) {
+            root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_1.0");
+            nodes = root.getElementsByTagName("HorizontalPixelSize");
+            if (nodes.getLength() == 1) {
+              IIOMetadataNode r = (IIOMetadataNode) nodes.item(0);
+              res = (int) Math.round(25.4 * Float.parseFloat(r.getAttribute("value")));
+            }
           }
-        } catch (IIOInvalidTreeException e) {
+        }
+        if (type == Image.Type.TIF || type == Image.Type.JPG) {
+          try {
+            TIFFDirectory t = TIFFDirectory.createFromMetadata(metadata);
+            if (t.containsTIFFField(700)) {
+              xmpPacket = t.getTIFFField(700).getAsBytes();
+            }
+            // Resolution
+            if (t.containsTIFFField(BaselineTIFFTagSet.TAG_X_RESOLUTION)) {
+              long[] r = t.getTIFFField(BaselineTIFFTagSet.TAG_X_RESOLUTION).getAsRational(0);
+              res = Math.floorDiv((int) r[0], (int) r[1]);
+              if (t.containsTIFFField(BaselineTIFFTagSet.TAG_RESOLUTION_UNIT) && t.getTIFFField(BaselineTIFFTagSet.TAG_RESOLUTION_UNIT).getAsChars()[0] == 3) {
+                res = Math.round(res * 2.54f);
+              }
+            }
+            // ICC Profile
+            if (t.containsTIFFField(BaselineTIFFTagSet.TAG_ICC_PROFILE)) {
+              profile = ICC_Profile.getInstance(t.getTIFFField(BaselineTIFFTagSet.TAG_ICC_PROFILE).getAsBytes());
+            }
+          } catch (IIOInvalidTreeException e) {
 
+          }
         }
       }
+      if (xmpPacket != null && !new String(xmpPacket, 0, Math.min(xmpPacket.length, Constants.XMP_PACKET_START.length()), StandardCharsets.ISO_8859_1).equals(Constants.XMP_PACKET_START)) {
+        xmpPacket = null;
+      }
+      this.res = res == 0 ? 72 : res;
+      if (metadata != null) {
+        metrics.record(Metrics.Stage.METADATA, type, System.nanoTime() - start, 0, 0, 0);
+      }
     }
-    if (xmpData != null) {
-      if (xmpData.startsWith(Constants.XMP_PACKET_START)) {
+
+    /**
+     * Parses the packet (an empty XMP object if there is none or it can't be parsed).
+     */
+    private static XMPMeta xmp(byte[] xmpPacket, Image.Type type) {
+      XMPMeta xmp = parse(xmpPacket, type);
+      return xmp == null ? XMPMetaFactory.create() : xmp;
+    }
+
+    /**
+     * Parses the packet (null if there is none or it can't be parsed).
+     */
+    private static XMPMeta parse(byte[] xmpPacket, Image.Type type) {
+      XMPMeta xmp = null;
+      if (xmpPacket != null) {
+        long start = System.nanoTime();
         try {
-          this.xmp = XMPMetaFactory.parseFromString(xmpData);
+          xmp = XMPMetaFactory.parseFromBuffer(xmpPacket);
         } catch (XMPException e) {
 
         }
-      } else {
-
+        metrics.record(Metrics.Stage.XMP_PARSE, type, System.nanoTime() - start, xmpPacket.length, 0, 0);
       }
+      return xmp;
     }
-    this.xmp = xmp == null ? XMPMetaFactory.create() : xmp;
-    this.res = res == 0 ? 72 : res;
+
   }
 
   /**
@@ -323,20 +590,163 @@ public class Image {
       return ex;
     }
 
+    String getFormat() {
+      return fm;
+    }
+
+  }
+
+  /**
+   * The resampling filters used by the edits - in order of quality (and cost).
+   * 
+   * @author Jason Keeber <jason@keeber.org>
+   *
+   */
+  public enum Filter {
+    BOX(0.5) {
+      double weight(double x) {
+        return x >= -0.5 && x < 0.5 ? 1 : 0;
+      }
+    },
+    BILINEAR(1) {
+      double weight(double x) {
+        x = Math.abs(x);
+        return x < 1 ? 1 - x : 0;
+      }
+    },
+    /**
+     * Mitchell-Netravali (B = C = 1/3).
+     */
+    BICUBIC(2) {
+      double weight(double x) {
+        x = Math.abs(x);
+        if (x < 1) {
+          return (7 * x * x * x - 12 * x * x + 16d / 3) / 6;
+        }
+        if (x < 2) {
+          return (-7d / 3 * x * x * x + 12 * x * x - 20 * x + 32d / 3) / 6;
+        }
+        return 0;
+      }
+    },
+    LANCZOS3(3) {
+      double weight(double x) {
+        x = Math.abs(x);
+        return x < 3 ? sinc(x) * sinc(x / 3) : 0;
+      }
+    };
+
+    final double support;
+
+    private Filter(double support) {
+      this.support = support;
+    }
+
+    abstract double weight(double x);
+
+    private static double sinc(double x) {
+      if (x == 0) {
+        return 1;
+      }
+      x *= Math.PI;
+      return Math.sin(x) / x;
+    }
+
   }
 
   public edit edit = new edit();
 
+  /**
+   * Holder for the edit methods. Resampling uses the {@link Filter#BICUBIC} filter unless one is
+   * given.
+   * 
+   * @author Jason Keeber <jason@keeber.org>
+   *
+   */
   public class edit {
 
     public Image longestSide(int length) {
       return Image.this.edit(new EditParams().longestSide(length));
     }
 
+    public Image longestSide(int length, Image.Filter filter) {
+      return Image.this.edit(new EditParams().longestSide(length).filter(filter));
+    }
+
     public Image place(int canvasWidth, int canvasHeight) {
       return Image.this.edit(new EditParams().place(canvasWidth, canvasHeight));
     }
 
+    public Image place(int canvasWidth, int canvasHeight, Image.Filter filter) {
+      return Image.this.edit(new EditParams().place(canvasWidth, canvasHeight).filter(filter));
+    }
+
+    /**
+     * Resizes by repeated halving before a final filter step (eg: BILINEAR or BICUBIC) to the exact
+     * size. Much faster for large reductions (eg: thumbnails) at a small cost in quality.
+     */
+    public Image longestSide(int length, Image.Filter filter, boolean progressive) {
+      return Image.this.edit(new EditParams().longestSide(length).filter(filter).progressive(progressive));
+    }
+
+    /**
+     * Places the image by repeated halving before a final filter step (eg: BILINEAR or BICUBIC) to
+     * the exact size. Much faster for large reductions (eg: thumbnails) at a small cost in quality.
+     */
+    public Image place(int canvasWidth, int canvasHeight, Image.Filter filter, boolean progressive) {
+      return Image.this.edit(new EditParams().place(canvasWidth, canvasHeight).filter(filter).progressive(progressive));
+    }
+
+  }
+
+  /**
+   * A rendition for {@link Image#renditions(Rendition...)}: a size (which must be > 0), an output
+   * type and the stream to write it to (which is closed afterwards).
+   * 
+   * @author Jason Keeber <jason@keeber.org>
+   *
+   */
+  public static class Rendition {
+    private int longestSide, canvasWidth, canvasHeight;
+    private Image.Type type;
+    private OutputStream os;
+    private Image.Filter filter = Image.Filter.BICUBIC;
+    private boolean flatten = false;
+
+    private Rendition(Image.Type type, OutputStream os) {
+      this.type = type;
+      this.os = os;
+    }
+
+    public static Rendition longestSide(int length, Image.Type type, OutputStream os) {
+      if (length < 1) {
+        throw new IllegalArgumentException("Longest side (" + length + ") must be > 0.");
+      }
+      Rendition r = new Rendition(type, os);
+      r.longestSide = length;
+      return r;
+    }
+
+    public static Rendition place(int canvasWidth, int canvasHeight, Image.Type type, OutputStream os) {
+      if (canvasWidth < 1 || canvasHeight < 1) {
+        throw new IllegalArgumentException("Canvas width (" + canvasWidth + ") and height (" + canvasHeight + ") must be > 0.");
+      }
+      Rendition r = new Rendition(type, os);
+      r.canvasWidth = canvasWidth;
+      r.canvasHeight = canvasHeight;
+      return r;
+    }
+
+    public Rendition filter(Image.Filter filter) {
+      this.filter = filter;
+      return this;
+    }
+
+    public Rendition flatten(boolean flatten) {
+      this.flatten = flatten;
+      return this;
+    }
+
   }
 
   public write write = new write();
@@ -349,16 +759,112 @@ public class Image {
    */
   public class write {
 
-    public void to(OutputStream os, Image.Type otype) throws IOException {
-      write.to(os, otype, xmp, false);
+    public long to(OutputStream os, Image.Type otype) throws IOException {
+      return write.to(os, otype, false);
+    }
+
+    public long to(OutputStream os, Image.Type otype, boolean flatten) throws IOException {
+      return to(raster, os, otype, packet(), flatten);
+    }
+
+    /**
+     * Encodes the image straight to the output stream (which is closed afterwards). The encoder
+     * output is held in memory until it can be flushed - and only spills to a temp file past the
+     * {@link Image#setSpillThreshold(long)}.
+     * 
+     * @return the number of bytes written to the stream
+     */
+    public long to(OutputStream os, Image.Type oType, XMPMeta oXmp, boolean flatten) throws IOException {
+      return to(raster, os, oType, serialize(oXmp), flatten);
+    }
+
+    /**
+     * Copies the source file (the one this image was read from) to the output stream (which is closed
+     * afterwards) with only the metadata replaced: XMP, ICC profile and resolution. The pixel data is
+     * copied as is - so there is no generation loss and no encoder cost. A JPEG only gets the
+     * resolution if it already has a JFIF segment.
+     *
+     * @param source the original file (of this image's type)
+     * @return the number of bytes written to the stream
+     */
+    public long metadata(InputStream source, OutputStream os) throws IOException {
+      try {
+        byte[] profileBytes = profile == null ? null : profile.getData();
+        if (type == Image.Type.JPG) {
+          return JPEGRewriter.rewrite(source, os, packet(), profileBytes, res);
+        }
+        if (type == Image.Type.PNG) {
+          return PNGRewriter.rewrite(source, os, packet(), profileBytes, res);
+        }
+        if (type == Image.Type.TIF) {
+          ImageInputStream iis = ImageIO.createImageInputStream(source);
+          try {
+            return TIFFRewriter.rewrite(iis, os, packet(), profileBytes, res);
+          } finally {
+            iis.close();
+          }
+        }
+        throw new IOException("Metadata only rewrite not supported for type [" + type + "].");
+      } finally {
+        os.close();
+      }
+    }
+
+    /**
+     * Updates the metadata (XMP, ICC profile and resolution) of the file (the one this image was read
+     * from) in place - TIFF only. The new values are patched over the old ones when they fit, otherwise
+     * a new directory is appended to the end of the file. The strips or tiles are never rewritten.
+     *
+     * @param file the original file
+     * @return true if the values were patched in place (false if a new directory was appended)
+     */
+    public boolean metadata(File file) throws IOException {
+      if (type != Image.Type.TIF) {
+        throw new IOException("In place metadata rewrite not supported for type [" + type + "].");
+      }
+      ImageOutputStream io = new FileImageOutputStream(new RandomAccessFile(file, "rw"));
+      try {
+        return TIFFRewriter.patch(io, packet(), profile == null ? null : profile.getData(), res);
+      } finally {
+        io.close();
+      }
     }
 
-    public void to(OutputStream os, Image.Type otype, boolean flatten) throws IOException {
-      write.to(os, otype, xmp, flatten);
+    /**
+     * The packet as read if the XMP has not been asked for (so could not have changed), otherwise the
+     * XMP serialized. The packet is never parsed here - a truncated one (no RDF or xpacket end) is
+     * dropped rather than copied through.
+     */
+    private byte[] packet() throws IOException {
+      if (xmp == null && xmpPacket != null && !XMPScanner.wrapped(xmpPacket)) {
+        xmp = XMPMetaFactory.create();
+        xmpPacket = null;
+      }
+      return xmp == null && xmpPacket != null ? xmpPacket : serialize(getXMP());
     }
 
-    public void to(OutputStream os, Image.Type oType, XMPMeta oXmp, boolean flatten) throws IOException {
-      ImageWriter writer = ImageIO.getImageWritersByFormatName(oType.fm).next();
+    private byte[] serialize(XMPMeta oXmp) throws IOException {
+      try {
+        long start = System.nanoTime();
+        byte[] b = XMPMetaFactory.serializeToBuffer(oXmp, Constants.SERIALIZE_OPTIONS);
+        metrics.record(Metrics.Stage.XMP_SERIALIZE, type, System.nanoTime() - start, 0, b.length, 0);
+        return b;
+      } catch (XMPException e) {
+        throw new IOException("Failed to serialize XMP[" + e.getLocalizedMessage() + "].", e);
+      }
+    }
+
+    private long to(BufferedImage raster, OutputStream os, Image.Type oType, byte[] xmpBytes, boolean flatten) throws IOException {
+      ImageWriter writer = Codecs.writer(oType);
+      try {
+        return to(writer, raster, os, oType, xmpBytes, flatten);
+      } finally {
+        Codecs.release(oType, writer);
+      }
+    }
+
+    private long to(ImageWriter writer, BufferedImage raster, OutputStream os, Image.Type oType, byte[] xmpBytes, boolean flatten) throws IOException {
+      long start = System.nanoTime();
       BufferedImage oRaster = raster;
       if (oRaster.getColorModel().hasAlpha() && (flatten || oType == Image.Type.JPG)) {
         oRaster = new BufferedImage(raster.getWidth(), raster.getHeight(), BufferedImage.TYPE_INT_RGB);
@@ -368,13 +874,7 @@ public class Image {
       }
       ImageWriteParam p = writer.getDefaultWriteParam();
       IIOMetadata m = writer.getDefaultImageMetadata(new ImageTypeSpecifier(oRaster), null);
-      // Serialize the XMP
-      byte[] xmpBytes, profileBytes;
-      try {
-        xmpBytes = XMPMetaFactory.serializeToBuffer(oXmp, Constants.SERIALIZE_OPTIONS);
-      } catch (XMPException e) {
-        throw new IOException("Failed to serialize XMP[" + e.getLocalizedMessage() + "].", e);
-      }
+      byte[] profileBytes;
       profileBytes = profile == null ? new byte[0] : profile.getData();
       if (oType == Image.Type.JPG) {
         IIOMetadataNode root = (IIOMetadataNode) m.getAsTree(oType.id);
@@ -446,7 +946,17 @@ public class Image {
         tp.setCompressionType("LZW");
       }
       if (oType == Image.Type.PNG) {
-        IIOMetadataNode root = (IIOMetadataNode) m.getAsTree(oType.id);
+        // ICC Profile
+        IIOMetadataNode root = (IIOMetadataNode) m.getAsTree("javax_imageio_1.0");
+        IIOMetadataNode iccp = new IIOMetadataNode("iCCP");
+        iccp.setUserObject(profileBytes);
+
+        root.appendChild(iccp);
+
+
+        m.mergeTree("javax_imageio_1.0", root);
+        // The native tree last - merging the standard tree again would re-derive the pHYs (wrongly).
+        root = (IIOMetadataNode) m.getAsTree(oType.id);
 
         IIOMetadataNode t = new IIOMetadataNode("iTXt");
         root.appendChild(t);
@@ -457,46 +967,28 @@ public class Image {
         x.setAttribute("compressionFlag", "FALSE");
         x.setAttribute("languageTag", "");
         x.setAttribute("translatedKeyword", "");
-        x.setAttribute("text", new String(xmpBytes));
+        x.setAttribute("text", new String(xmpBytes, StandardCharsets.UTF_8));
+        // DPI - as pixels per meter (the same pHYs the PNGRewriter writes).
+        IIOMetadataNode phys = new IIOMetadataNode("pHYs");
+        String ppm = String.valueOf(Math.round(res / 0.0254));
+        phys.setAttribute("pixelsPerUnitXAxis", ppm);
+        phys.setAttribute("pixelsPerUnitYAxis", ppm);
+        phys.setAttribute("unitSpecifier", "meter");
+        root.appendChild(phys);
         m.mergeTree(oType.id, root);
-        // DPI (We hope).
-        root = (IIOMetadataNode) m.getAsTree("javax_imageio_1.0");
-        IIOMetadataNode horiz = new IIOMetadataNode("HorizontalPixelSize");
-        horiz.setAttribute("value", Double.toString(res / 25.4));
-        IIOMetadataNode vert = new IIOMetadataNode("VerticalPixelSize");
-        vert.setAttribute("value", Double.toString(res / 25.4));
-        IIOMetadataNode dim = new IIOMetadataNode("Dimension");
-        dim.appendChild(horiz);
-        dim.appendChild(vert);
-        root.appendChild(dim);
-        // ICC Profile
-        root = (IIOMetadataNode) m.getAsTree("javax_imageio_1.0");
-        IIOMetadataNode iccp = new IIOMetadataNode("iCCP");
-        iccp.setUserObject(profileBytes);
-
-        root.appendChild(iccp);
-
-
-        m.mergeTree("javax_imageio_1.0", root);
       }
-      File tmp = File.createTempFile("JImage", "." + oType.getExtention());
-      tmp.deleteOnExit();
-      writer.setOutput(ImageIO.createImageOutputStream(tmp));
-      writer.write(null, new IIOImage(oRaster, null, m), p);
-      writer.dispose();
-      copy(new FileInputStream(tmp), os);
-      tmp.delete();
-    }
-
-    private void copy(InputStream is, OutputStream os) throws IOException {
-      byte[] buffer = new byte[1024 * 8];
-      int len;
-      while ((len = is.read(buffer)) > 0) {
-        os.write(buffer, 0, len);
+      SpillImageOutputStream ios = new SpillImageOutputStream(os, spillThreshold);
+      try {
+        writer.setOutput(ios);
+        writer.write(null, new IIOImage(oRaster, null, m), p);
+        ios.close();
+      } finally {
+        ios.dispose();
       }
       os.flush();
-      is.close();
       os.close();
+      metrics.record(Metrics.Stage.ENCODE, oType, System.nanoTime() - start, 0, ios.getBytesWritten(), (long) oRaster.getWidth() * oRaster.getHeight());
+      return ios.getBytesWritten();
     }
 
   }
@@ -505,6 +997,8 @@ public class Image {
   private class EditParams {
     private int canvasWidth, canvasHeight, offsetX, offsetY, imageWidth, imageHeight;
     private boolean flatten = false;
+    private Image.Filter filter = Image.Filter.BICUBIC;
+    private boolean progressive = false;
 
     public EditParams longestSide(int length) {
       offsetX = 0;
@@ -526,6 +1020,16 @@ public class Image {
       return this;
     }
 
+    public EditParams filter(Image.Filter filter) {
+      this.filter = filter;
+      return this;
+    }
+
+    public EditParams progressive(boolean progressive) {
+      this.progressive = progressive;
+      return this;
+    }
+
 
   }
 
@@ -537,18 +1041,260 @@ public class Image {
    *
    */
   public static class read {
+    private static final byte[] TIF_II = {'I', 'I', 42, 0}, TIF_MM = {'M', 'M', 0, 42};
+    private static final byte[] JPG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * Reads an image - sniffing the type from its signature (see {@link #type(InputStream)}).
+     * 
+     * @param is
+     * @return
+     * @throws IOException if the type is not recognized
+     */
+    public static Image from(InputStream is) throws IOException {
+      is = is.markSupported() ? is : new BufferedInputStream(is);
+      return from(is, type(is));
+    }
 
     public static Image from(InputStream is, Image.Type type) throws IOException {
-      ImageReader reader = ImageIO.getImageReadersByFormatName(type.fm).next();
-      reader.setInput(ImageIO.createImageInputStream(is), true, false);
-      return new Image(reader.read(0), reader.getImageMetadata(0), type);
+      return from(is, type, null, 0, 0);
+    }
+
+    /**
+     * Sniffs the image type from the first few bytes (TIFF II* / MM*, JPEG FFD8 or the PNG
+     * signature) - the stream is reset to where it was.
+     * 
+     * @param is a stream that supports mark / reset
+     * @return the type
+     * @throws IOException if the type is not recognized
+     */
+    public static Image.Type type(InputStream is) throws IOException {
+      if (!is.markSupported()) {
+        throw new IllegalArgumentException("Stream must support mark / reset.");
+      }
+      byte[] b = new byte[PNG.length];
+      is.mark(b.length);
+      int len = 0;
+      try {
+        for (int n; len < b.length && (n = is.read(b, len, b.length - len)) != -1;) {
+          len += n;
+        }
+      } finally {
+        is.reset();
+      }
+      if (signed(b, len, TIF_II) || signed(b, len, TIF_MM)) {
+        return Image.Type.TIF;
+      }
+      if (signed(b, len, JPG)) {
+        return Image.Type.JPG;
+      }
+      if (signed(b, len, PNG)) {
+        return Image.Type.PNG;
+      }
+      throw new IOException("Unrecognized image signature.");
+    }
+
+    private static boolean signed(byte[] b, int len, byte[] signature) {
+      if (len < signature.length) {
+        return false;
+      }
+      for (int i = 0; i < signature.length; i++) {
+        if (b[i] != signature[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Reads a reduced image for a target longest side (eg: for a thumbnail) by subsampling while
+     * decoding. The result is never smaller than the target - so finish with
+     * {@link edit#longestSide(int)}. The metadata reflects the source image.
+     * 
+     * @param is
+     * @param type
+     * @param longestSide the target length of the longest side
+     * @return
+     * @throws IOException
+     */
+    public static Image from(InputStream is, Image.Type type, int longestSide) throws IOException {
+      return from(is, type, longestSide, longestSide);
+    }
+
+    /**
+     * Reads a reduced image for a target bounding box (eg: for a thumbnail) by subsampling while
+     * decoding. The result still covers the box fit - so finish with {@link edit#place(int, int)}.
+     * The metadata reflects the source image.
+     * 
+     * @param is
+     * @param type
+     * @param maxWidth
+     * @param maxHeight
+     * @return
+     * @throws IOException
+     */
+    public static Image from(InputStream is, Image.Type type, int maxWidth, int maxHeight) throws IOException {
+      return from(is, type, null, maxWidth, maxHeight);
+    }
+
+    /**
+     * Reads only a region of the image (eg: a crop or a tile) - on tiled TIFFs only the tiles that
+     * intersect the region are decoded. The metadata reflects the source image.
+     * 
+     * @param is
+     * @param type
+     * @param region in source pixels (clipped to the image bounds)
+     * @return
+     * @throws IOException
+     */
+    public static Image from(InputStream is, Image.Type type, Rectangle region) throws IOException {
+      return from(is, type, region, 0, 0);
+    }
+
+    /**
+     * Reads only a region of the image, subsampled for a target longest side (see
+     * {@link #from(InputStream, Type, int)}).
+     * 
+     * @param is
+     * @param type
+     * @param region in source pixels (clipped to the image bounds)
+     * @param longestSide the target length of the longest side of the region
+     * @return
+     * @throws IOException
+     */
+    public static Image from(InputStream is, Image.Type type, Rectangle region, int longestSide) throws IOException {
+      return from(is, type, region, longestSide, longestSide);
+    }
+
+    private static Image from(InputStream is, Image.Type type, Rectangle region, int maxWidth, int maxHeight) throws IOException {
+      ImageInputStream iis = ImageIO.createImageInputStream(is);
+      ImageReader reader = Codecs.reader(type);
+      try {
+        reader.setInput(iis, true, false);
+        ImageReadParam param = reader.getDefaultReadParam();
+        Rectangle bounds = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+        if (region != null) {
+          bounds = bounds.intersection(region);
+          if (bounds.isEmpty()) {
+            throw new IllegalArgumentException("Region " + region + " is outside the image bounds.");
+          }
+          param.setSourceRegion(bounds);
+        }
+        if (maxWidth > 0 && maxHeight > 0) {
+          int factor = subsampling(bounds.width, bounds.height, maxWidth, maxHeight);
+          param.setSourceSubsampling(factor, factor, 0, 0);
+        }
+        long start = System.nanoTime();
+        BufferedImage decoded = reader.read(0, param);
+        metrics.record(Metrics.Stage.DECODE, type, System.nanoTime() - start, iis.getStreamPosition(), 0, (long) decoded.getWidth() * decoded.getHeight());
+        return new Image(decoded, reader.getImageMetadata(0), type);
+      } finally {
+        Codecs.release(type, reader);
+        iis.close();
+      }
+    }
+
+    /**
+     * The largest integer subsampling factor that still leaves the image at least as big as its fit
+     * in the box.
+     */
+    private static int subsampling(int width, int height, int maxWidth, int maxHeight) {
+      return Math.max(1, (int) Math.floor(Math.max((1d * width) / maxWidth, (1d * height) / maxHeight)));
+    }
+
+    /**
+     * Reads the header information of an image - sniffing the type from its signature (see
+     * {@link #type(InputStream)}).
+     * 
+     * @param is
+     * @return the image header information
+     * @throws IOException if the type is not recognized
+     */
+    public static ImageInfo probe(InputStream is) throws IOException {
+      is = is.markSupported() ? is : new BufferedInputStream(is);
+      return probe(is, type(is));
     }
 
-    // public static XMPMeta xmpOnly(InputStream is, Image.Type type) throws IOException {
-    // ImageReader reader = ImageIO.getImageReadersByFormatName(type.fm).next();
-    // reader.setInput(ImageIO.createImageInputStream(is), true, false);
-    // return new Image(null, reader.getImageMetadata(0), type).getXMP();
-    // }
+    /**
+     * Reads the dimensions, resolution, ICC profile and XMP of an image without decoding the pixels.
+     * 
+     * @param is
+     * @param type
+     * @return the image header information
+     * @throws IOException
+     */
+    public static ImageInfo probe(InputStream is, Image.Type type) throws IOException {
+      ImageInputStream iis = ImageIO.createImageInputStream(is);
+      ImageReader reader = Codecs.reader(type);
+      try {
+        reader.setInput(iis, true, false);
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        Header header = new Header(metadata, type);
+        int bands = 0, bitDepth = 0;
+        if (metadata != null && metadata.isStandardMetadataFormatSupported()) {
+          IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_1.0");
+          NodeList nodes = root.getElementsByTagName("NumChannels");
+          if (nodes.getLength() == 1) {
+            bands = Integer.parseInt(((IIOMetadataNode) nodes.item(0)).getAttribute("value").trim());
+          }
+          nodes = root.getElementsByTagName("BitsPerSample");
+          if (nodes.getLength() == 1) {
+            bitDepth = Integer.parseInt(((IIOMetadataNode) nodes.item(0)).getAttribute("value").trim().split("\\s+")[0]);
+          }
+        }
+        if (metadata != null && bitDepth == 0 && type == Image.Type.JPG) {
+          NodeList nodes = ((IIOMetadataNode) metadata.getAsTree(type.id)).getElementsByTagName("sof");
+          if (nodes.getLength() == 1) {
+            bitDepth = Integer.parseInt(((IIOMetadataNode) nodes.item(0)).getAttribute("samplePrecision"));
+          }
+        }
+        return new ImageInfo(type, reader.getWidth(0), reader.getHeight(0), bands, bitDepth, header.res, header.profile, header.xmpPacket);
+      } finally {
+        Codecs.release(type, reader);
+        iis.close();
+      }
+    }
+
+    /**
+     * Reads only the XMP of an image - sniffing the type from its signature (see
+     * {@link #type(InputStream)}).
+     * 
+     * @param is
+     * @return the XMP (empty if there is none)
+     * @throws IOException if the type is not recognized
+     */
+    public static XMPMeta xmp(InputStream is) throws IOException {
+      is = is.markSupported() ? is : new BufferedInputStream(is);
+      return xmp(is, type(is));
+    }
+
+    /**
+     * Reads only the XMP of an image by scanning for the packet (JPEG APP1, PNG iTXt or TIFF tag 700)
+     * - the image metadata is never built and the pixel data is skipped over.
+     * 
+     * @param is
+     * @param type
+     * @return the XMP (empty if there is none)
+     * @throws IOException
+     */
+    public static XMPMeta xmp(InputStream is, Image.Type type) throws IOException {
+      ImageInputStream iis = ImageIO.createImageInputStream(is);
+      try {
+        byte[] packet = XMPScanner.scan(iis, type);
+        if (packet == null) {
+          return XMPMetaFactory.create();
+        }
+        long start = System.nanoTime();
+        XMPMeta xmp = XMPMetaFactory.parseFromBuffer(packet);
+        metrics.record(Metrics.Stage.XMP_PARSE, type, System.nanoTime() - start, packet.length, 0, 0);
+        return xmp;
+      } catch (XMPException e) {
+        throw new IOException("Failed to parse XMP[" + e.getLocalizedMessage() + "].", e);
+      } finally {
+        iis.close();
+      }
+    }
 
   }
 
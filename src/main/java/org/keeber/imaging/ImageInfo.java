@@ -0,0 +1,96 @@
+package org.keeber.imaging;
+
+import java.awt.color.ICC_Profile;
+
+import com.adobe.xmp.XMPMeta;
+
+/**
+ * The header information of an image (as returned by {@link Image.read#probe(java.io.InputStream, Image.Type)}) - read without
+ * decoding the pixels.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+public final class ImageInfo {
+  private final Image.Type type;
+  private final int width, height, bands, bitDepth, res;
+  private final ICC_Profile profile;
+  // The packet as read - only parsed when the XMP is first asked for.
+  private byte[] xmpPacket;
+  private XMPMeta xmp;
+
+  ImageInfo(Image.Type type, int width, int height, int bands, int bitDepth, int res, ICC_Profile profile, byte[] xmpPacket) {
+    this.type = type;
+    this.width = width;
+    this.height = height;
+    this.bands = bands;
+    this.bitDepth = bitDepth;
+    this.res = res;
+    this.profile = profile;
+    this.xmpPacket = xmpPacket;
+  }
+
+  public Image.Type getType() {
+    return type;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * The number of bands (channels) in the image - including any alpha, 0 if the reader did not
+   * report it.
+   * 
+   * @return
+   */
+  public int getBands() {
+    return bands;
+  }
+
+  /**
+   * The bits per sample of the first band, 0 if the reader did not report it.
+   * 
+   * @return
+   */
+  public int getBitDepth() {
+    return bitDepth;
+  }
+
+  /**
+   * The resolution read from the header (defaults to 72). Always in DPI.
+   * 
+   * @return
+   */
+  public int getRes() {
+    return res;
+  }
+
+  public ICC_Profile getProfile() {
+    return profile;
+  }
+
+  /**
+   * A copy of the Adobe XMP Object read from the header (or an empty one). The packet is parsed on
+   * the first call - so a probe for the size alone never parses it.
+   * 
+   * @return Adobe XMP Object
+   */
+  public synchronized XMPMeta getXMP() {
+    if (xmp == null) {
+      xmp = Image.xmp(xmpPacket, type);
+      xmpPacket = null;
+    }
+    return (XMPMeta) xmp.clone();
+  }
+
+  @Override
+  public String toString() {
+    return "ImageInfo[" + type + " " + width + "x" + height + " bands=" + bands + " bitDepth=" + bitDepth + " res=" + res + " profile=" + (profile != null) + "]";
+  }
+
+}
@@ -0,0 +1,192 @@
+package org.keeber.imaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites the metadata of a JPEG at the marker level: the APP1 XMP and APP2 ICC segments are
+ * replaced (or inserted), the density of an existing APP0 JFIF segment is updated and everything
+ * else - including the entropy coded data - is copied through untouched.
+ * <p>
+ * A JFIF segment is never added: decoders let JFIF override the colour transform of an Adobe APP14
+ * segment, so adding one to an RGB JPEG would change its colours. Without one the density is left
+ * out.
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+class JPEGRewriter {
+  private static final int TEM = 0x01, RST0 = 0xD0, RST7 = 0xD7, SOI = 0xD8, EOI = 0xD9, SOS = 0xDA, APP0 = 0xE0, APP1 = 0xE1, APP2 = 0xE2, APP15 = 0xEF;
+  private static final byte[] JFIF = "JFIF\0".getBytes(), XMP = "http://ns.adobe.com/xap/1.0/\0".getBytes(), ICC = "ICC_PROFILE\0".getBytes();
+  // A segment is at most 65535 bytes including the length itself.
+  private static final int MAX_SEGMENT = 65535 - 2, MAX_ICC_CHUNK = MAX_SEGMENT - ICC.length - 2;
+
+  /**
+   * A marker segment (the payload excludes the marker and length).
+   */
+  private static class Segment {
+    private final int marker;
+    private final byte[] payload;
+
+    private Segment(int marker, byte[] payload) {
+      this.marker = marker;
+      this.payload = payload;
+    }
+
+    private boolean is(int marker, byte[] header) {
+      if (this.marker != marker || payload.length < header.length) {
+        return false;
+      }
+      for (int i = 0; i < header.length; i++) {
+        if (payload[i] != header[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+  /**
+   * Copies the JPEG from the input to the output with new metadata.
+   *
+   * @param is the source JPEG
+   * @param os
+   * @param xmp the serialized XMP packet
+   * @param icc the ICC profile (or null for none)
+   * @param res in DPI (only written if the source has a JFIF segment)
+   * @return the number of bytes written
+   * @throws IOException
+   */
+  static long rewrite(InputStream is, OutputStream os, byte[] xmp, byte[] icc, int res) throws IOException {
+    if (XMP.length + xmp.length > MAX_SEGMENT) {
+      throw new IOException("XMP packet too large for an APP1 segment [" + xmp.length + "].");
+    }
+    DataInputStream in = new DataInputStream(is);
+    if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != SOI) {
+      throw new IOException("Not a JPEG (no SOI marker).");
+    }
+    // Read the segments up to the start of scan.
+    Segment jfif = null;
+    List<Segment> leading = new ArrayList<Segment>(), rest = new ArrayList<Segment>();
+    int marker;
+    while ((marker = marker(in)) != SOS) {
+      if (marker == EOI) {
+        throw new IOException("No image data (EOI before SOS).");
+      }
+      if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+        // Standalone - no length.
+        continue;
+      }
+      byte[] payload = new byte[in.readUnsignedShort() - 2];
+      in.readFully(payload);
+      Segment s = new Segment(marker, payload);
+      if (s.is(APP0, JFIF) && jfif == null) {
+        jfif = s;
+      } else if (s.is(APP1, XMP) || s.is(APP2, ICC)) {
+        continue;
+      } else if (marker >= APP0 && marker <= APP15 && rest.isEmpty()) {
+        leading.add(s);
+      } else {
+        rest.add(s);
+      }
+    }
+    DataOutputStream out = new DataOutputStream(os);
+    out.write(0xFF);
+    out.write(SOI);
+    long size = 2;
+    if (jfif != null) {
+      size += write(out, APP0, jfif(jfif, res));
+    }
+    for (Segment s : leading) {
+      size += write(out, s.marker, s.payload);
+    }
+    size += write(out, APP1, concat(XMP, xmp));
+    if (icc != null && icc.length > 0) {
+      int chunks = (icc.length + MAX_ICC_CHUNK - 1) / MAX_ICC_CHUNK;
+      for (int i = 0; i < chunks; i++) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(ICC);
+        bos.write(i + 1);
+        bos.write(chunks);
+        bos.write(icc, i * MAX_ICC_CHUNK, Math.min(MAX_ICC_CHUNK, icc.length - i * MAX_ICC_CHUNK));
+        size += write(out, APP2, bos.toByteArray());
+      }
+    }
+    for (Segment s : rest) {
+      size += write(out, s.marker, s.payload);
+    }
+    // The start of scan and everything after it.
+    out.write(0xFF);
+    out.write(SOS);
+    size += 2;
+    byte[] buffer = new byte[1024 * 8];
+    int len;
+    while ((len = in.read(buffer)) > 0) {
+      out.write(buffer, 0, len);
+      size += len;
+    }
+    out.flush();
+    // Counted here - DataOutputStream.size() stops at Integer.MAX_VALUE.
+    return size;
+  }
+
+  /**
+   * The JFIF payload with the density set (keeping the version and thumbnail of the existing one).
+   */
+  private static byte[] jfif(Segment existing, int res) {
+    if (existing.payload.length < 12) {
+      // Too short to hold a density - leave it as it is.
+      return existing.payload;
+    }
+    byte[] b = existing.payload.clone();
+    b[7] = 1; // Dots per inch
+    b[8] = (byte) (res >> 8);
+    b[9] = (byte) res;
+    b[10] = (byte) (res >> 8);
+    b[11] = (byte) res;
+    return b;
+  }
+
+  /**
+   * The next marker code (skipping any fill bytes).
+   */
+  private static int marker(DataInputStream in) throws IOException {
+    int b = in.readUnsignedByte();
+    if (b != 0xFF) {
+      throw new IOException("Expected a marker but found [" + Integer.toHexString(b) + "].");
+    }
+    while ((b = in.readUnsignedByte()) == 0xFF);
+    return b;
+  }
+
+  /**
+   * Writes a marker segment.
+   *
+   * @return the number of bytes written
+   */
+  private static int write(DataOutputStream out, int marker, byte[] payload) throws IOException {
+    if (payload.length > MAX_SEGMENT) {
+      throw new IOException("Segment too large [" + payload.length + "].");
+    }
+    out.write(0xFF);
+    out.write(marker);
+    out.writeShort(payload.length + 2);
+    out.write(payload);
+    return payload.length + 4;
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] c = new byte[a.length + b.length];
+    System.arraycopy(a, 0, c, 0, a.length);
+    System.arraycopy(b, 0, c, a.length, b.length);
+    return c;
+  }
+
+}
@@ -0,0 +1,120 @@
+package org.keeber.imaging;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Admission control for decoding: a budget of heap bytes that jobs reserve (based on the predicted
+ * size of their rasters) before decoding and give back once done. Jobs wait their turn (first come
+ * first served) until enough of the budget is free - a job bigger than the whole budget waits for
+ * all of it and then runs alone.
+ *
+ * <pre>
+ * MemoryBudget budget = MemoryBudget.ofHeap(0.6);
+ * long reserved = budget.acquire(Image.read.probe(in, Image.Type.TIF));
+ * try {
+ *   ...
+ * } finally {
+ *   budget.release(reserved);
+ * }
+ * </pre>
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+public class MemoryBudget {
+  private final long total;
+  private long available;
+  private final Deque<Object> waiting = new ArrayDeque<Object>();
+
+  /**
+   * @param bytes the size of the budget
+   */
+  public MemoryBudget(long bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("Budget must be > 0.");
+    }
+    this.total = this.available = bytes;
+  }
+
+  /**
+   * A budget of a fraction of the maximum heap.
+   *
+   * @param fraction eg: 0.6
+   * @return
+   */
+  public static MemoryBudget ofHeap(double fraction) {
+    return new MemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction));
+  }
+
+  /**
+   * The predicted peak bytes for a job on the image: the decoded raster, the INT_ARGB copy made by
+   * {@link Image#normalize(boolean)} (or the resampler) and an edit canvas up to the same size.
+   *
+   * @param info
+   * @return
+   */
+  public static long estimate(ImageInfo info) {
+    long pixels = (long) info.getWidth() * info.getHeight();
+    int bands = info.getBands() > 0 ? info.getBands() : 4;
+    int bytesPerSample = info.getBitDepth() > 0 ? (info.getBitDepth() + 7) / 8 : 1;
+    return pixels * bands * bytesPerSample + 2 * pixels * 4;
+  }
+
+  /**
+   * Reserves the estimate for the image - blocking until it fits.
+   *
+   * @param info
+   * @return the bytes reserved (to release)
+   * @throws InterruptedException
+   */
+  public long acquire(ImageInfo info) throws InterruptedException {
+    return acquire(estimate(info));
+  }
+
+  /**
+   * Reserves bytes - blocking until they fit (anything over the whole budget is capped to it).
+   *
+   * @param bytes
+   * @return the bytes reserved (to release)
+   * @throws InterruptedException
+   */
+  public synchronized long acquire(long bytes) throws InterruptedException {
+    bytes = Math.min(Math.max(0, bytes), total);
+    Object ticket = new Object();
+    waiting.add(ticket);
+    try {
+      while (waiting.peek() != ticket || available < bytes) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      // Give up our place without holding up the queue.
+      waiting.remove(ticket);
+      notifyAll();
+      throw e;
+    }
+    waiting.remove();
+    available -= bytes;
+    notifyAll();
+    return bytes;
+  }
+
+  /**
+   * Returns reserved bytes to the budget.
+   *
+   * @param bytes
+   */
+  public synchronized void release(long bytes) {
+    available = Math.min(total, available + bytes);
+    notifyAll();
+  }
+
+  public long getTotal() {
+    return total;
+  }
+
+  public synchronized long getAvailable() {
+    return available;
+  }
+
+}
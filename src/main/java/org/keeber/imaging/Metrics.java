@@ -0,0 +1,69 @@
+package org.keeber.imaging;
+
+/**
+ * Instrumentation SPI - called by {@link Image} after each stage of its work (install one with
+ * {@link Image#setMetrics(Metrics)}). Implementations are called from any thread and should be
+ * cheap. See {@link HistogramMetrics} for a recorder with percentiles per stage.
+ * 
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+public interface Metrics {
+
+  /**
+   * The stages that are reported.
+   */
+  enum Stage {
+    /**
+     * ImageIO decode of the pixels (bytes in is the stream position afterwards).
+     */
+    DECODE,
+    /**
+     * Finding the resolution, ICC profile and XMP in the IIOMetadata (without the XMP parse).
+     */
+    METADATA,
+    /**
+     * Parsing the XMP packet (bytes in is the packet length).
+     */
+    XMP_PARSE,
+    /**
+     * {@link Image#normalize(boolean)}.
+     */
+    NORMALIZE,
+    /**
+     * Resizing for an edit or rendition (pixels is the size of the result).
+     */
+    RESAMPLE,
+    /**
+     * Serializing the XMP for writing (bytes out is the packet length).
+     */
+    XMP_SERIALIZE,
+    /**
+     * ImageIO encode, including building the metadata and writing to the stream.
+     */
+    ENCODE
+  }
+
+  /**
+   * Does nothing - the default.
+   */
+  Metrics NONE = new Metrics() {
+
+    @Override
+    public void record(Stage stage, Image.Type type, long nanos, long bytesIn, long bytesOut, long pixels) {}
+
+  };
+
+  /**
+   * Records a stage.
+   * 
+   * @param stage
+   * @param type the image type (the output type for encoding - null if unknown)
+   * @param nanos duration
+   * @param bytesIn bytes read or consumed (0 if none)
+   * @param bytesOut bytes produced (0 if none)
+   * @param pixels the number of pixels decoded, produced or encoded (0 if none)
+   */
+  void record(Stage stage, Image.Type type, long nanos, long bytesIn, long bytesOut, long pixels);
+
+}
@@ -0,0 +1,162 @@
+package org.keeber.imaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Rewrites the metadata of a PNG at the chunk level: the XMP iTXt, pHYs and iCCP chunks are replaced
+ * (written straight after IHDR) and everything else - including the IDAT chunks - is copied through
+ * untouched.
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+class PNGRewriter {
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+  private static final int IHDR = type("IHDR"), IEND = type("IEND"), ITXT = type("iTXt"), PHYS = type("pHYs"), ICCP = type("iCCP"), SRGB = type("sRGB");
+  private static final byte[] XMP_KEYWORD = "XML:com.adobe.xmp\0".getBytes();
+  private static final byte[] PROFILE_NAME = "ICC Profile".getBytes();
+
+  /**
+   * Copies the PNG from the input to the output with new metadata.
+   *
+   * @param is the source PNG
+   * @param os
+   * @param xmp the serialized XMP packet
+   * @param icc the ICC profile (or null for none)
+   * @param res in DPI
+   * @return the number of bytes written
+   * @throws IOException
+   */
+  static long rewrite(InputStream is, OutputStream os, byte[] xmp, byte[] icc, int res) throws IOException {
+    DataInputStream in = new DataInputStream(is);
+    byte[] signature = new byte[SIGNATURE.length];
+    in.readFully(signature);
+    if (!Arrays.equals(signature, SIGNATURE)) {
+      throw new IOException("Not a PNG (bad signature).");
+    }
+    DataOutputStream out = new DataOutputStream(os);
+    out.write(SIGNATURE);
+    long size = SIGNATURE.length;
+    boolean profiled = icc != null && icc.length > 0;
+    byte[] buffer = new byte[1024 * 8];
+    int length, type;
+    do {
+      length = in.readInt();
+      type = in.readInt();
+      if (length < 0) {
+        throw new IOException("Bad chunk length [" + length + "].");
+      }
+      if (type == PHYS || type == ICCP || (type == SRGB && profiled)) {
+        skip(in, length + 4L);
+      } else if (type == ITXT) {
+        byte[] data = new byte[length];
+        in.readFully(data);
+        int crc = in.readInt();
+        if (!startsWith(data, XMP_KEYWORD)) {
+          out.writeInt(length);
+          out.writeInt(type);
+          out.write(data);
+          out.writeInt(crc);
+          size += 12L + length;
+        }
+      } else {
+        // Copy the chunk (and its CRC) as is.
+        out.writeInt(length);
+        out.writeInt(type);
+        long remaining = length + 4L;
+        while (remaining > 0) {
+          int len = (int) Math.min(buffer.length, remaining);
+          in.readFully(buffer, 0, len);
+          out.write(buffer, 0, len);
+          remaining -= len;
+        }
+        size += 12L + length;
+        if (type == IHDR) {
+          // The new chunks go straight after the header (before any PLTE or IDAT).
+          if (profiled) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            bos.write(PROFILE_NAME);
+            bos.write(0);
+            bos.write(0); // Deflate
+            DeflaterOutputStream dos = new DeflaterOutputStream(bos);
+            dos.write(icc);
+            dos.close();
+            size += chunk(out, ICCP, bos.toByteArray());
+          }
+          {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(9);
+            DataOutputStream phys = new DataOutputStream(bos);
+            int ppm = (int) Math.round(res / 0.0254);
+            phys.writeInt(ppm);
+            phys.writeInt(ppm);
+            phys.write(1); // Meter
+            size += chunk(out, PHYS, bos.toByteArray());
+          }
+          {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(XMP_KEYWORD.length + 4 + xmp.length);
+            bos.write(XMP_KEYWORD);
+            bos.write(0); // Uncompressed
+            bos.write(0);
+            bos.write(0); // No language tag
+            bos.write(0); // No translated keyword
+            bos.write(xmp);
+            size += chunk(out, ITXT, bos.toByteArray());
+          }
+        }
+      }
+    } while (type != IEND);
+    out.flush();
+    // Counted here - DataOutputStream.size() stops at Integer.MAX_VALUE.
+    return size;
+  }
+
+  private static int chunk(DataOutputStream out, int type, byte[] data) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(type >>> 24);
+    crc.update(type >>> 16);
+    crc.update(type >>> 8);
+    crc.update(type);
+    crc.update(data);
+    out.writeInt(data.length);
+    out.writeInt(type);
+    out.write(data);
+    out.writeInt((int) crc.getValue());
+    return 12 + data.length;
+  }
+
+  private static void skip(DataInputStream in, long n) throws IOException {
+    while (n > 0) {
+      int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+      if (skipped <= 0) {
+        in.readByte();
+        skipped = 1;
+      }
+      n -= skipped;
+    }
+  }
+
+  private static boolean startsWith(byte[] b, byte[] prefix) {
+    if (b.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (b[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int type(String name) {
+    return name.charAt(0) << 24 | name.charAt(1) << 16 | name.charAt(2) << 8 | name.charAt(3);
+  }
+
+}
@@ -0,0 +1,318 @@
+package org.keeber.imaging;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Separable resampling engine working directly on packed int pixels. Images with alpha are
+ * resampled premultiplied (so there are no dark fringes), everything else as INT_RGB. A horizontal
+ * pass into an intermediate image is followed by a vertical pass - each using a weight table that is
+ * cached by filter and size.
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+class Resampler {
+  private static final int MAX_CACHED_WEIGHTS = 64;
+  // Below this many source pixels the split costs more than it saves.
+  private static final long PARALLEL_THRESHOLD = 1024 * 1024;
+  private static final Map<String, Weights> CACHE = new ConcurrentHashMap<String, Weights>();
+
+  /**
+   * Resamples the image to the given size (single threaded).
+   *
+   * @param src
+   * @param width
+   * @param height
+   * @param filter
+   * @return an INT_RGB or INT_ARGB_PRE image
+   */
+  static BufferedImage resize(BufferedImage src, int width, int height, Image.Filter filter) {
+    return resize(src, width, height, filter, null, 0);
+  }
+
+  /**
+   * Resamples the image to the given size - splitting both passes into strips of rows on the pool.
+   * Every row is computed the same way however it is split so the result is identical to the single
+   * threaded one. Small images are always done on the calling thread.
+   *
+   * @param src
+   * @param width
+   * @param height
+   * @param filter
+   * @param pool the pool to split the work on (null for single threaded)
+   * @param strip the number of rows per task (0 for single threaded)
+   * @return an INT_RGB or INT_ARGB_PRE image
+   */
+  static BufferedImage resize(BufferedImage src, int width, int height, Image.Filter filter, ForkJoinPool pool, int strip) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Width (" + width + ") and height (" + height + ") must be > 0.");
+    }
+    src = packed(src);
+    final int srcWidth = src.getWidth(), srcHeight = src.getHeight();
+    BufferedImage dst = new BufferedImage(width, height, src.getType());
+    final int[] in = pixels(src), out = pixels(dst);
+    final boolean alpha = src.getType() == BufferedImage.TYPE_INT_ARGB_PRE;
+    if (width == srcWidth && height == srcHeight) {
+      System.arraycopy(in, 0, out, 0, in.length);
+      return dst;
+    }
+    final int dstWidth = width;
+    final Weights wx = weights(filter, srcWidth, width), wy = weights(filter, srcHeight, height);
+    // Horizontal pass into an intermediate (width x srcHeight) image.
+    final int[] tmp = new int[width * srcHeight];
+    if (pool == null || strip <= 0 || (long) srcWidth * srcHeight < PARALLEL_THRESHOLD) {
+      horizontal(in, srcWidth, tmp, dstWidth, 0, srcHeight, wx, alpha);
+      vertical(tmp, dstWidth, out, 0, height, wy, alpha);
+    } else {
+      pool.invoke(new Strips(new Pass() {
+        public void run(int from, int to) {
+          horizontal(in, srcWidth, tmp, dstWidth, from, to, wx, alpha);
+        }
+      }, 0, srcHeight, strip));
+      // Vertical pass into the destination.
+      pool.invoke(new Strips(new Pass() {
+        public void run(int from, int to) {
+          vertical(tmp, dstWidth, out, from, to, wy, alpha);
+        }
+      }, 0, height, strip));
+    }
+    return dst;
+  }
+
+  /**
+   * Resamples the image to the given size by halving it (with a 2x2 box filter) for as long as it is
+   * at least twice the size - then a single filter step to the exact size. Much cheaper than a wide
+   * filter for large reductions (eg: thumbnails).
+   *
+   * @param src
+   * @param width
+   * @param height
+   * @param filter for the final step (eg: BILINEAR or BICUBIC)
+   * @param pool the pool to split the work on (null for single threaded)
+   * @param strip the number of rows per task (0 for single threaded)
+   * @return an INT_RGB or INT_ARGB_PRE image
+   */
+  static BufferedImage progressive(BufferedImage src, int width, int height, Image.Filter filter, ForkJoinPool pool, int strip) {
+    src = packed(src);
+    while (src.getWidth() / 2 >= width && src.getHeight() / 2 >= height) {
+      src = halve(src, pool, strip);
+    }
+    return resize(src, width, height, filter, pool, strip);
+  }
+
+  /**
+   * Halves a packed image - averaging each 2x2 block two channels at a time (an odd last row or
+   * column is dropped).
+   */
+  static BufferedImage halve(BufferedImage src, ForkJoinPool pool, int strip) {
+    final int srcWidth = src.getWidth();
+    final int width = srcWidth / 2, height = src.getHeight() / 2;
+    BufferedImage dst = new BufferedImage(width, height, src.getType());
+    final int[] in = pixels(src), out = pixels(dst);
+    Pass pass = new Pass() {
+      public void run(int from, int to) {
+        for (int y = from; y < to; y++) {
+          int i = 2 * y * srcWidth, o = y * width;
+          for (int x = 0; x < width; x++, i += 2) {
+            int p0 = in[i], p1 = in[i + 1], p2 = in[i + srcWidth], p3 = in[i + srcWidth + 1];
+            int rb = (p0 & 0xff00ff) + (p1 & 0xff00ff) + (p2 & 0xff00ff) + (p3 & 0xff00ff) + 0x20002;
+            int ag = ((p0 >>> 8) & 0xff00ff) + ((p1 >>> 8) & 0xff00ff) + ((p2 >>> 8) & 0xff00ff) + ((p3 >>> 8) & 0xff00ff) + 0x20002;
+            out[o + x] = ((ag << 6) & 0xff00ff00) | ((rb >>> 2) & 0xff00ff);
+          }
+        }
+      }
+    };
+    if (pool == null || strip <= 0 || (long) srcWidth * src.getHeight() < PARALLEL_THRESHOLD) {
+      pass.run(0, height);
+    } else {
+      pool.invoke(new Strips(pass, 0, height, strip));
+    }
+    return dst;
+  }
+
+  private interface Pass {
+
+    void run(int from, int to);
+
+  }
+
+  /**
+   * Splits a pass over rows [from, to) in half until it is at most a strip long.
+   */
+  private static class Strips extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Pass pass;
+    private final int from, to, strip;
+
+    private Strips(Pass pass, int from, int to, int strip) {
+      this.pass = pass;
+      this.from = from;
+      this.to = to;
+      this.strip = strip;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= strip) {
+        pass.run(from, to);
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Strips(pass, from, mid, strip), new Strips(pass, mid, to, strip));
+      }
+    }
+
+  }
+
+  /**
+   * Resamples the rows [from, to) of the source into the intermediate image.
+   */
+  static void horizontal(int[] in, int inWidth, int[] out, int outWidth, int from, int to, Weights w, boolean alpha) {
+    for (int y = from; y < to; y++) {
+      int row = y * inWidth;
+      int o = y * outWidth;
+      for (int x = 0; x < outWidth; x++) {
+        float a = 0, r = 0, g = 0, b = 0;
+        int left = row + w.left[x];
+        int wi = x * w.taps;
+        for (int k = 0; k < w.count[x]; k++) {
+          int p = in[left + k];
+          float f = w.weights[wi + k];
+          a += f * (p >>> 24);
+          r += f * ((p >> 16) & 0xff);
+          g += f * ((p >> 8) & 0xff);
+          b += f * (p & 0xff);
+        }
+        out[o + x] = pack(a, r, g, b, alpha);
+      }
+    }
+  }
+
+  /**
+   * Resamples the intermediate image into the destination rows [from, to).
+   */
+  static void vertical(int[] in, int width, int[] out, int from, int to, Weights w, boolean alpha) {
+    float[] acc = new float[width * 4];
+    for (int y = from; y < to; y++) {
+      Arrays.fill(acc, 0);
+      int wi = y * w.taps;
+      for (int k = 0; k < w.count[y]; k++) {
+        float f = w.weights[wi + k];
+        int row = (w.left[y] + k) * width;
+        for (int x = 0, c = 0; x < width; x++, c += 4) {
+          int p = in[row + x];
+          acc[c] += f * (p >>> 24);
+          acc[c + 1] += f * ((p >> 16) & 0xff);
+          acc[c + 2] += f * ((p >> 8) & 0xff);
+          acc[c + 3] += f * (p & 0xff);
+        }
+      }
+      int o = y * width;
+      for (int x = 0, c = 0; x < width; x++, c += 4) {
+        out[o + x] = pack(acc[c], acc[c + 1], acc[c + 2], acc[c + 3], alpha);
+      }
+    }
+  }
+
+  private static int pack(float a, float r, float g, float b, boolean alpha) {
+    int ia = alpha ? clamp(a, 255) : 0xff;
+    return ia << 24 | clamp(r, ia) << 16 | clamp(g, ia) << 8 | clamp(b, ia);
+  }
+
+  private static int clamp(float v, int max) {
+    int i = (int) (v + 0.5f);
+    return i < 0 ? 0 : i > max ? max : i;
+  }
+
+  /**
+   * The image as INT_RGB or INT_ARGB_PRE with no offset or padding (converting it if needed).
+   */
+  static BufferedImage packed(BufferedImage src) {
+    int type = src.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB;
+    WritableRaster raster = src.getRaster();
+    if (src.getType() == type && raster.getParent() == null && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+        && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == src.getWidth() && raster.getDataBuffer().getOffset() == 0) {
+      return src;
+    }
+    BufferedImage tmp = new BufferedImage(src.getWidth(), src.getHeight(), type);
+    Graphics2D g = tmp.createGraphics();
+    g.drawImage(src, 0, 0, null);
+    g.dispose();
+    return tmp;
+  }
+
+  static int[] pixels(BufferedImage img) {
+    return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+  }
+
+  /**
+   * The (cached) weight table for resampling a line of srcLength to dstLength.
+   */
+  static Weights weights(Image.Filter filter, int srcLength, int dstLength) {
+    String key = filter + ":" + srcLength + ":" + dstLength;
+    Weights w = CACHE.get(key);
+    if (w == null) {
+      w = new Weights(filter, srcLength, dstLength);
+      if (CACHE.size() >= MAX_CACHED_WEIGHTS) {
+        CACHE.clear();
+      }
+      CACHE.put(key, w);
+    }
+    return w;
+  }
+
+  /**
+   * For each destination pixel: the first source pixel, the number of source pixels and their
+   * (normalized) weights.
+   */
+  static class Weights {
+    final int taps;
+    final int[] left, count;
+    final float[] weights;
+
+    Weights(Image.Filter filter, int srcLength, int dstLength) {
+      double scale = (1d * srcLength) / dstLength;
+      // Stretch the filter when reducing so every source pixel contributes.
+      double filterScale = Math.max(1d, scale);
+      double support = filter.support * filterScale;
+      taps = (int) Math.ceil(support) * 2 + 2;
+      left = new int[dstLength];
+      count = new int[dstLength];
+      weights = new float[dstLength * taps];
+      for (int i = 0; i < dstLength; i++) {
+        double center = (i + 0.5d) * scale;
+        int from = Math.max(0, (int) Math.floor(center - support));
+        int to = Math.min(srcLength, (int) Math.ceil(center + support));
+        double total = 0;
+        int n = 0;
+        for (int j = from; j < to && n < taps; j++, n++) {
+          double v = filter.weight((j + 0.5d - center) / filterScale);
+          weights[i * taps + n] = (float) v;
+          total += v;
+        }
+        if (total == 0) {
+          // Can only happen with a box filter landing between samples - take the nearest.
+          from = Math.min(srcLength - 1, (int) center);
+          n = 1;
+          weights[i * taps] = 1;
+          total = 1;
+        }
+        for (int k = 0; k < n; k++) {
+          weights[i * taps + k] /= total;
+        }
+        left[i] = from;
+        count[i] = n;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,225 @@
+package org.keeber.imaging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * An ImageOutputStream that caches in memory and passes flushed bytes straight through to the
+ * target stream. The cache only spills to a temp file once the unflushed portion grows past the
+ * threshold (the TIFF writer seeks back to the start so it holds the whole image).
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+class SpillImageOutputStream extends ImageOutputStreamImpl {
+  private final OutputStream os;
+  // The cache is a byte array - so it can never hold more than this.
+  private static final long MAX_THRESHOLD = Integer.MAX_VALUE - 8;
+  private final long threshold;
+  private byte[] buffer = new byte[1024 * 8];
+  // Stream position of buffer[0] (or of the first byte in the file once spilled).
+  private long base = 0;
+  private long length = 0;
+  private long written = 0;
+  private File file;
+  private RandomAccessFile raf;
+  private boolean closed = false;
+
+  SpillImageOutputStream(OutputStream os, long threshold) {
+    this.os = os;
+    this.threshold = Math.min(threshold, MAX_THRESHOLD);
+  }
+
+  /**
+   * The number of bytes passed through to the target stream so far.
+   *
+   * @return
+   */
+  public long getBytesWritten() {
+    return written;
+  }
+
+  /**
+   * True if the cache went over the threshold and was moved to a temp file.
+   *
+   * @return
+   */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    // Straight to the cache (or file) - the encoders write headers and markers a byte at a time.
+    checkClosed();
+    flushBits();
+    long end = streamPos + 1;
+    if (raf == null && end - base > threshold) {
+      spill();
+    }
+    if (raf != null) {
+      raf.seek(streamPos - base);
+      raf.write(b);
+    } else {
+      ensure((int) (end - base));
+      buffer[(int) (streamPos - base)] = (byte) b;
+    }
+    streamPos = end;
+    length = Math.max(length, end);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkClosed();
+    flushBits();
+    long end = streamPos + len;
+    if (raf == null && end - base > threshold) {
+      spill();
+    }
+    if (raf != null) {
+      raf.seek(streamPos - base);
+      raf.write(b, off, len);
+    } else {
+      ensure((int) (end - base));
+      System.arraycopy(b, off, buffer, (int) (streamPos - base), len);
+    }
+    streamPos = end;
+    length = Math.max(length, end);
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkClosed();
+    bitOffset = 0;
+    if (streamPos >= length) {
+      return -1;
+    }
+    int b;
+    if (raf != null) {
+      raf.seek(streamPos - base);
+      b = raf.read();
+    } else {
+      b = buffer[(int) (streamPos - base)] & 0xff;
+    }
+    streamPos++;
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkClosed();
+    bitOffset = 0;
+    if (streamPos >= length) {
+      return -1;
+    }
+    int n = (int) Math.min(len, length - streamPos);
+    if (raf != null) {
+      raf.seek(streamPos - base);
+      raf.readFully(b, off, n);
+    } else {
+      System.arraycopy(buffer, (int) (streamPos - base), b, off, n);
+    }
+    streamPos += n;
+    return n;
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+  @Override
+  public void seek(long pos) throws IOException {
+    checkClosed();
+    if (pos < flushedPos) {
+      throw new IndexOutOfBoundsException("pos < flushedPos!");
+    }
+    bitOffset = 0;
+    streamPos = pos;
+  }
+
+  @Override
+  public void flushBefore(long pos) throws IOException {
+    super.flushBefore(pos);
+    pos = Math.min(pos, length);
+    if (pos <= written) {
+      return;
+    }
+    if (raf != null) {
+      byte[] b = new byte[1024 * 8];
+      raf.seek(written - base);
+      while (written < pos) {
+        int len = (int) Math.min(b.length, pos - written);
+        raf.readFully(b, 0, len);
+        os.write(b, 0, len);
+        written += len;
+      }
+    } else {
+      int len = (int) (pos - written);
+      os.write(buffer, (int) (written - base), len);
+      written = pos;
+      // Drop the flushed part of the buffer.
+      System.arraycopy(buffer, (int) (pos - base), buffer, 0, (int) (length - pos));
+      base = pos;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      seek(Math.max(streamPos, length));
+      flushBefore(length);
+    } finally {
+      dispose();
+    }
+  }
+
+  /**
+   * Closes the stream and removes any temp file without passing the rest of the cache through (eg:
+   * when the encoder failed).
+   *
+   * @throws IOException
+   */
+  public void dispose() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (raf != null) {
+        raf.close();
+      }
+    } finally {
+      if (file != null) {
+        file.delete();
+      }
+      raf = null;
+      buffer = null;
+      super.close();
+    }
+  }
+
+  private void spill() throws IOException {
+    file = File.createTempFile("JImage", ".tmp");
+    file.deleteOnExit();
+    raf = new RandomAccessFile(file, "rw");
+    raf.write(buffer, 0, (int) (length - base));
+    buffer = null;
+  }
+
+  private void ensure(int size) {
+    if (size > buffer.length) {
+      byte[] tmp = new byte[Math.max(size, Math.min(buffer.length * 2, Integer.MAX_VALUE - 8))];
+      System.arraycopy(buffer, 0, tmp, 0, (int) (length - base));
+      buffer = tmp;
+    }
+  }
+
+}
@@ -0,0 +1,290 @@
+package org.keeber.imaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Rewrites the metadata of a TIFF at the IFD level: the XMP (700), resolution (282, 283, 296) and ICC
+ * profile (34675) tags of the first directory are replaced and the strips or tiles are never touched.
+ * <p>
+ * A copy gets a new first directory appended to the end (with the untouched entries still pointing
+ * at the original values). In place the changed values are patched over the old ones when they fit
+ * - otherwise the new directory is appended and relinked the same way.
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+class TIFFRewriter {
+  private static final int XMP = 700, X_RESOLUTION = 282, Y_RESOLUTION = 283, RESOLUTION_UNIT = 296, ICC_PROFILE = 34675;
+  private static final int BYTE = 1, SHORT = 3, RATIONAL = 5;
+  // Bytes per value by field type (BYTE to IFD).
+  private static final int[] SIZES = {1, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4};
+
+  /**
+   * A directory entry: either as read (the value is the raw 4 byte value/offset field) or new (the
+   * value is all of the data).
+   */
+  private static class Entry {
+    private final int tag, type;
+    private final long count;
+    private final byte[] value;
+    // Where the entry itself is in the file (-1 for new entries).
+    private long position = -1;
+
+    private Entry(int tag, int type, long count, byte[] value) {
+      this.tag = tag;
+      this.type = type;
+      this.count = count;
+      this.value = value;
+    }
+
+    private long size() {
+      return count * (type < SIZES.length ? SIZES[type] : 1);
+    }
+
+  }
+
+  private static class Directory {
+    private ByteOrder order;
+    private long offset, next;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private Entry get(int tag) {
+      for (Entry e : entries) {
+        if (e.tag == tag) {
+          return e;
+        }
+      }
+      return null;
+    }
+
+  }
+
+  /**
+   * Copies the TIFF from the input to the output with a new first directory.
+   *
+   * @param in the source TIFF
+   * @param os
+   * @param xmp the serialized XMP packet
+   * @param icc the ICC profile (or null for none)
+   * @param res in DPI
+   * @return the number of bytes written
+   * @throws IOException
+   */
+  static long rewrite(ImageInputStream in, OutputStream os, byte[] xmp, byte[] icc, int res) throws IOException {
+    Directory d = read(in);
+    long length = in.length();
+    byte[] buffer = new byte[1024 * 8];
+    if (length < 0) {
+      // A cached stream - read to the end to find out.
+      in.seek(8);
+      while (in.read(buffer) > 0);
+      length = in.getStreamPosition();
+    }
+    long base = length + (length & 1);
+    // Built (and checked) before any of the body is streamed.
+    byte[] ifd = directory(d, entries(d, xmp, icc, res), base);
+    ByteBuffer header = ByteBuffer.allocate(8).order(d.order);
+    byte mark = (byte) (d.order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M');
+    header.put(mark).put(mark).putShort((short) 42).putInt((int) base);
+    os.write(header.array());
+    in.seek(8);
+    for (long remaining = length - 8; remaining > 0;) {
+      int len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (len < 0) {
+        throw new IOException("Unexpected end of TIFF.");
+      }
+      os.write(buffer, 0, len);
+      remaining -= len;
+    }
+    if (base > length) {
+      os.write(0);
+    }
+    os.write(ifd);
+    os.flush();
+    return base + ifd.length;
+  }
+
+  /**
+   * Updates the TIFF in place - overwriting the changed values when they fit in the space of the old
+   * ones, otherwise appending a new first directory to the end.
+   *
+   * @param io the TIFF (opened for reading and writing)
+   * @param xmp the serialized XMP packet
+   * @param icc the ICC profile (or null for none)
+   * @param res in DPI
+   * @return true if the values were patched in place (false if a new directory was appended)
+   * @throws IOException
+   */
+  static boolean patch(ImageOutputStream io, byte[] xmp, byte[] icc, int res) throws IOException {
+    Directory d = read(io);
+    List<Entry> changes = changes(d.order, xmp, icc, res);
+    boolean fits = icc != null || d.get(ICC_PROFILE) == null;
+    for (Entry change : changes) {
+      Entry old = d.get(change.tag);
+      fits &= old != null && (change.size() <= 4 || change.size() <= old.size() && old.size() > 4);
+    }
+    if (fits) {
+      for (Entry change : changes) {
+        Entry old = d.get(change.tag);
+        io.seek(old.position + 2);
+        io.writeShort(change.type);
+        io.writeInt((int) change.count);
+        if (change.size() <= 4) {
+          io.write(pad(change.value));
+        } else {
+          io.seek(unsigned(old.value, d.order));
+          io.write(change.value);
+        }
+      }
+    } else {
+      long length = io.length();
+      long base = length + (length & 1);
+      byte[] ifd = directory(d, entries(d, xmp, icc, res), base);
+      io.seek(length);
+      if (base > length) {
+        io.write(0);
+      }
+      io.write(ifd);
+      io.seek(4);
+      io.writeInt((int) base);
+    }
+    io.flush();
+    return fits;
+  }
+
+  /**
+   * Reads the header and first directory (leaving the stream in the file's byte order).
+   */
+  private static Directory read(ImageInputStream in) throws IOException {
+    Directory d = new Directory();
+    in.seek(0);
+    int b0 = in.read(), b1 = in.read();
+    if (b0 == 'I' && b1 == 'I') {
+      d.order = ByteOrder.LITTLE_ENDIAN;
+    } else if (b0 == 'M' && b1 == 'M') {
+      d.order = ByteOrder.BIG_ENDIAN;
+    } else {
+      throw new IOException("Not a TIFF (bad byte order).");
+    }
+    in.setByteOrder(d.order);
+    int magic = in.readUnsignedShort();
+    if (magic != 42) {
+      throw new IOException(magic == 43 ? "BigTIFF is not supported." : "Not a TIFF (bad magic [" + magic + "]).");
+    }
+    d.offset = in.readUnsignedInt();
+    in.seek(d.offset);
+    int n = in.readUnsignedShort();
+    for (int i = 0; i < n; i++) {
+      long position = in.getStreamPosition();
+      Entry e = new Entry(in.readUnsignedShort(), in.readUnsignedShort(), in.readUnsignedInt(), new byte[4]);
+      in.readFully(e.value);
+      e.position = position;
+      d.entries.add(e);
+    }
+    d.next = in.readUnsignedInt();
+    return d;
+  }
+
+  /**
+   * The new values (in the file's byte order).
+   */
+  private static List<Entry> changes(ByteOrder order, byte[] xmp, byte[] icc, int res) {
+    List<Entry> changes = new ArrayList<Entry>();
+    changes.add(new Entry(XMP, BYTE, xmp.length, xmp));
+    byte[] rational = ByteBuffer.allocate(8).order(order).putInt(res).putInt(1).array();
+    changes.add(new Entry(X_RESOLUTION, RATIONAL, 1, rational));
+    changes.add(new Entry(Y_RESOLUTION, RATIONAL, 1, rational));
+    changes.add(new Entry(RESOLUTION_UNIT, SHORT, 1, ByteBuffer.allocate(2).order(order).putShort((short) 2).array()));
+    if (icc != null) {
+      changes.add(new Entry(ICC_PROFILE, BYTE, icc.length, icc));
+    }
+    return changes;
+  }
+
+  /**
+   * The entries of the first directory with the changes applied (sorted by tag).
+   */
+  private static List<Entry> entries(Directory d, byte[] xmp, byte[] icc, int res) {
+    List<Entry> changes = changes(d.order, xmp, icc, res);
+    List<Entry> entries = new ArrayList<Entry>();
+    for (Entry e : d.entries) {
+      boolean replaced = e.tag == ICC_PROFILE;
+      for (Entry change : changes) {
+        replaced |= change.tag == e.tag;
+      }
+      if (!replaced) {
+        entries.add(e);
+      }
+    }
+    entries.addAll(changes);
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry a, Entry b) {
+        return a.tag - b.tag;
+      }
+    });
+    return entries;
+  }
+
+  /**
+   * A directory (followed by its out of line values) to be written at the given offset.
+   *
+   * @throws IOException if it would end past the 32 bit offsets of a classic TIFF
+   */
+  private static byte[] directory(Directory d, List<Entry> entries, long base) throws IOException {
+    int size = 2 + entries.size() * 12 + 4;
+    for (Entry e : entries) {
+      if (e.position < 0 && e.size() > 4) {
+        size += e.value.length + (e.value.length & 1);
+      }
+    }
+    if (base + size > 0xFFFFFFFFL) {
+      throw new IOException("The new directory would end past 4GB (needs BigTIFF).");
+    }
+    ByteBuffer b = ByteBuffer.allocate(size).order(d.order);
+    b.putShort((short) entries.size());
+    int values = 2 + entries.size() * 12 + 4;
+    for (Entry e : entries) {
+      b.putShort((short) e.tag).putShort((short) e.type).putInt((int) e.count);
+      if (e.position >= 0) {
+        // Untouched - the value (or offset to it) is still valid.
+        b.put(e.value);
+      } else if (e.size() <= 4) {
+        b.put(pad(e.value));
+      } else {
+        b.putInt((int) (base + values));
+        int mark = b.position();
+        b.position(values);
+        b.put(e.value);
+        values += e.value.length + (e.value.length & 1);
+        b.position(mark);
+      }
+    }
+    b.putInt((int) d.next);
+    return b.array();
+  }
+
+  /**
+   * A value padded to fill the 4 byte value field.
+   */
+  private static byte[] pad(byte[] value) {
+    byte[] b = new byte[4];
+    System.arraycopy(value, 0, b, 0, value.length);
+    return b;
+  }
+
+  private static long unsigned(byte[] b, ByteOrder order) {
+    return ByteBuffer.wrap(b).order(order).getInt() & 0xffffffffL;
+  }
+
+}
@@ -0,0 +1,233 @@
+package org.keeber.imaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Finds the XMP packet of an image by walking the file structure (JPEG markers, PNG chunks or the
+ * first TIFF directory) - skipping over everything else, so the pixel data is never read and no
+ * image metadata tree is built.
+ *
+ * @author Jason Keeber <jason@keeber.org>
+ *
+ */
+class XMPScanner {
+  // Anything claiming to be bigger than this is not an XMP packet we want to read.
+  private static final int MAX_PACKET = 1024 * 1024 * 16;
+  private static final byte[] JPG_HEADER = "http://ns.adobe.com/xap/1.0/\0".getBytes(), PNG_KEYWORD = "XML:com.adobe.xmp\0".getBytes();
+  private static final byte[] PACKET_START = "<?xpacket begin".getBytes(), PACKET_END = "<?xpacket end".getBytes();
+  private static final byte[] RDF = ":RDF".getBytes();
+  private static final int IEND = 0x49454E44, ITXT = 0x69545874;
+  private static final int TIF_XMP = 700;
+
+  /**
+   * The raw XMP packet (from &lt;?xpacket begin to end?&gt; when it is wrapped) for
+   * {@link com.adobe.xmp.XMPMetaFactory#parseFromBuffer(byte[])}.
+   *
+   * @param in
+   * @param type
+   * @return the packet (or null if there is none)
+   * @throws IOException
+   */
+  static byte[] scan(ImageInputStream in, Image.Type type) throws IOException {
+    byte[] b;
+    switch (type) {
+      case JPG:
+        b = jpg(in);
+        break;
+      case PNG:
+        b = png(in);
+        break;
+      default:
+        b = tif(in);
+    }
+    return b == null ? null : packet(b);
+  }
+
+  private static byte[] jpg(ImageInputStream in) throws IOException {
+    in.setByteOrder(ByteOrder.BIG_ENDIAN);
+    if (in.readUnsignedShort() != 0xFFD8) {
+      throw new IOException("Not a JPEG (no SOI marker).");
+    }
+    while (true) {
+      if (in.read() != 0xFF) {
+        throw new IOException("Expected a JPEG marker.");
+      }
+      int marker;
+      while ((marker = in.read()) == 0xFF);
+      if (marker < 0 || marker == 0xDA || marker == 0xD9) {
+        // Start of scan (or the end) - there are no more headers.
+        return null;
+      }
+      if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+        continue;
+      }
+      int length = in.readUnsignedShort() - 2;
+      if (marker == 0xE1 && length > JPG_HEADER.length) {
+        if (starts(in, JPG_HEADER)) {
+          byte[] b = new byte[length - JPG_HEADER.length];
+          in.readFully(b);
+          return b;
+        }
+        length -= JPG_HEADER.length;
+      }
+      in.seek(in.getStreamPosition() + length);
+    }
+  }
+
+  private static byte[] png(ImageInputStream in) throws IOException {
+    in.setByteOrder(ByteOrder.BIG_ENDIAN);
+    if (in.readLong() != 0x89504E470D0A1A0AL) {
+      throw new IOException("Not a PNG (bad signature).");
+    }
+    while (true) {
+      long length = in.readUnsignedInt();
+      int type = in.readInt();
+      if (type == IEND) {
+        return null;
+      }
+      long skip = length + 4;
+      if (type == ITXT && length > PNG_KEYWORD.length && length <= MAX_PACKET) {
+        if (starts(in, PNG_KEYWORD)) {
+          byte[] b = new byte[(int) length - PNG_KEYWORD.length];
+          in.readFully(b);
+          boolean compressed = b[0] == 1;
+          // Skip the compression flag and method, language tag and translated keyword.
+          int i = 2;
+          for (int nulls = 0; i < b.length && nulls < 2; i++) {
+            nulls += b[i] == 0 ? 1 : 0;
+          }
+          return compressed ? inflate(b, i) : copy(b, i, b.length);
+        }
+        skip -= PNG_KEYWORD.length;
+      }
+      // Every other chunk (IDAT included) and its CRC is skipped over without being read.
+      in.seek(in.getStreamPosition() + skip);
+    }
+  }
+
+  private static byte[] tif(ImageInputStream in) throws IOException {
+    int b0 = in.read(), b1 = in.read();
+    if (b0 == 'I' && b1 == 'I') {
+      in.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+    } else if (b0 == 'M' && b1 == 'M') {
+      in.setByteOrder(ByteOrder.BIG_ENDIAN);
+    } else {
+      throw new IOException("Not a TIFF (bad byte order).");
+    }
+    if (in.readUnsignedShort() != 42) {
+      throw new IOException("Not a TIFF (bad magic).");
+    }
+    in.seek(in.readUnsignedInt());
+    int n = in.readUnsignedShort();
+    for (int i = 0; i < n; i++) {
+      int tag = in.readUnsignedShort(), type = in.readUnsignedShort();
+      long count = in.readUnsignedInt();
+      if (tag == TIF_XMP && (type == 1 || type == 7) && count <= MAX_PACKET) {
+        if (count > 4) {
+          in.seek(in.readUnsignedInt());
+        }
+        byte[] b = new byte[(int) count];
+        in.readFully(b);
+        return b;
+      }
+      if (tag > TIF_XMP) {
+        // Entries are sorted by tag.
+        return null;
+      }
+      in.skipBytes(4);
+    }
+    return null;
+  }
+
+  /**
+   * A structural check (without parsing) that the packet is wrapped and holds an RDF element - enough
+   * to copy a packet as read through to a write.
+   *
+   * @param packet
+   * @return true if it looks like a whole packet
+   */
+  static boolean wrapped(byte[] packet) {
+    int start = indexOf(packet, PACKET_START, 0);
+    if (start < 0) {
+      return false;
+    }
+    int rdf = indexOf(packet, RDF, start + PACKET_START.length);
+    return rdf >= 0 && indexOf(packet, PACKET_END, rdf + RDF.length) >= 0;
+  }
+
+  /**
+   * True if the stream starts with the bytes (which are consumed).
+   */
+  private static boolean starts(ImageInputStream in, byte[] prefix) throws IOException {
+    byte[] b = new byte[prefix.length];
+    in.readFully(b);
+    return indexOf(b, prefix, 0) == 0;
+  }
+
+  /**
+   * Trims the bytes to the xpacket wrapper (if there is one).
+   */
+  private static byte[] packet(byte[] b) {
+    int start = indexOf(b, PACKET_START, 0);
+    if (start < 0) {
+      return b;
+    }
+    int end = indexOf(b, PACKET_END, start);
+    if (end >= 0) {
+      int close = indexOf(b, "?>".getBytes(), end);
+      end = close < 0 ? b.length : close + 2;
+    } else {
+      end = b.length;
+    }
+    return start == 0 && end == b.length ? b : copy(b, start, end);
+  }
+
+  private static int indexOf(byte[] b, byte[] find, int from) {
+    outer: for (int i = from; i <= b.length - find.length; i++) {
+      for (int j = 0; j < find.length; j++) {
+        if (b[i + j] != find[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static byte[] copy(byte[] b, int from, int to) {
+    byte[] c = new byte[to - from];
+    System.arraycopy(b, from, c, 0, c.length);
+    return c;
+  }
+
+  private static byte[] inflate(byte[] b, int from) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(b, from, b.length - from);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(b.length * 4);
+      byte[] buffer = new byte[1024 * 8];
+      while (!inflater.finished()) {
+        int len = inflater.inflate(buffer);
+        if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated compressed XMP.");
+        }
+        bos.write(buffer, 0, len);
+        if (bos.size() > MAX_PACKET) {
+          throw new IOException("Compressed XMP too large.");
+        }
+      }
+      return bos.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IOException("Bad compressed XMP [" + e.getLocalizedMessage() + "].", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+}